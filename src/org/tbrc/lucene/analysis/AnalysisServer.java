@@ -0,0 +1,539 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+
+/**
+ * A long-lived analysis daemon for ingestion pipelines that are not written in Java, so that they do not pay for a JVM start and warm-up per batch.
+ * <p>
+ * The server listens on a port of the loopback interface only. Each connection carries a batch of documents, analyzed one after the other by one of
+ * a fixed set of worker threads; a client wanting more parallelism opens more connections. Every worker analyzes sample text with every analyzer
+ * before it takes connections, so the analyzers' per-thread components are built and the code is compiled before the first batch arrives.
+ * <p>
+ * The protocol is binary; <tt>int</tt> is a big-endian signed 32-bit integer and <tt>name</tt> is an unsigned byte length followed by that many bytes
+ * of UTF-8. A client sends any number of
+ *
+ * <pre>
+ * document := byte 1, name analyzer, name field, chunk*, int 0
+ * chunk    := int length &gt; 0, length bytes of UTF-8 text
+ * </pre>
+ *
+ * followed by a byte 0 when it is done, and the server closes the connection. The text may be split into chunks anywhere, even inside a character;
+ * the server reads it lazily while it analyzes, so a document is never held in memory in full. The analyzers are named <tt>tibetan</tt>,
+ * <tt>wylie</tt>, <tt>mixed</tt> and <tt>chunk</tt>. For each document the server answers
+ *
+ * <pre>
+ * response := frame*, int 0
+ * frame    := int length &gt; 0, length bytes of tokens
+ * error    := int -1, int length, length bytes of UTF-8 message
+ * </pre>
+ *
+ * Tokens are sent in frames of about {@link #FRAME_SIZE} bytes while the document is analyzed. Concatenated, the frames of a document are one record
+ * of {@link PreAnalyzedWriter}: its tokens, a 0 and the final offset, all in Lucene vints. If the analysis fails, an error replaces the rest of the
+ * response, and the frames already sent for the document are to be discarded. A malformed request closes the connection.
+ * <p>
+ * The server sends the frames of a document while it is still reading the document, so a client must read the responses while it writes its
+ * documents, from a second thread or with non-blocking I/O. A client that writes a whole large document before it reads fills both socket buffers,
+ * and the server can then neither send nor read. The server closes a connection when a read or a write waits longer than the timeout, so that
+ * such a client, or a stalled one, does not hold a worker for good.
+ *
+ * <pre>
+ * java org.tbrc.lucene.analysis.AnalysisServer [-port 7777] [-threads N] [-warmup N] [-timeout ms]
+ * </pre>
+ */
+public final class AnalysisServer implements Closeable {
+
+	/** The size of the token frames sent to the client, in bytes */
+	public static final int FRAME_SIZE = 16384;
+
+	/** The default time a read from or a write to a connection may wait, in milliseconds */
+	public static final int DEFAULT_TIMEOUT = 60000;
+
+	static final int END = 0;
+	static final int DOCUMENT = 1;
+
+	private final ServerSocket serverSocket;
+	private final Map<String, Analyzer> analyzers;
+	private final int warmup;
+	private final int timeout;
+	private final BlockingQueue<Socket> connections = new LinkedBlockingQueue<Socket>();
+	/** The accepted connections not closed yet, waiting or being served */
+	private final Set<Socket> open = Collections.synchronizedSet(new HashSet<Socket>());
+	private final Worker[] workers;
+	private final Thread acceptor;
+	private final Thread watchdog;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a server on <tt>port</tt> of the loopback interface, with the given analyzers by name and number of worker threads. Each worker
+	 * analyzes <tt>warmup</tt> sample texts with each analyzer before it takes connections. Connections use the {@link #DEFAULT_TIMEOUT}. Call
+	 * {@link #start()} to accept connections.
+	 */
+	public AnalysisServer(int port, Map<String, Analyzer> analyzers, int threads, int warmup) throws IOException {
+		this(port, analyzers, threads, warmup, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Creates a server as {@link #AnalysisServer(int, Map, int, int)} does, closing a connection when a read or a write waits longer than
+	 * <tt>timeout</tt> milliseconds; 0 waits forever.
+	 */
+	public AnalysisServer(int port, Map<String, Analyzer> analyzers, int threads, int warmup, int timeout) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1: " + threads);
+		}
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+		}
+		this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+		this.analyzers = analyzers;
+		this.warmup = warmup;
+		this.timeout = timeout;
+		this.workers = new Worker[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker("analysis-worker-" + i);
+		}
+		this.acceptor = new Thread("analysis-acceptor") {
+			@Override
+			public void run() {
+				accept();
+			}
+		};
+		if (timeout > 0) {
+			this.watchdog = new Thread("analysis-watchdog") {
+				@Override
+				public void run() {
+					watch();
+				}
+			};
+			watchdog.setDaemon(true);
+		} else {
+			this.watchdog = null;
+		}
+	}
+
+	/** Returns the analyzers of the protocol by name, with their default settings */
+	public static Map<String, Analyzer> defaultAnalyzers() {
+		final Map<String, Analyzer> analyzers = new LinkedHashMap<String, Analyzer>();
+		for (String name : Analyzers.NAMES) {
+			analyzers.put(name, Analyzers.create(name));
+		}
+		return analyzers;
+	}
+
+	/** Returns the port the server listens on */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/** Starts the workers and accepts connections */
+	public void start() {
+		for (Worker worker : workers) {
+			worker.start();
+		}
+		acceptor.start();
+		if (watchdog != null) {
+			watchdog.start();
+		}
+	}
+
+	/**
+	 * Stops accepting connections, closes the open ones and stops the workers; batches in progress are cut off. Closing a connection is what wakes
+	 * a worker blocked reading from it.
+	 */
+	public void close() throws IOException {
+		closed = true;
+		serverSocket.close();
+		final List<Socket> sockets;
+		synchronized (open) {
+			sockets = new ArrayList<Socket>(open);
+		}
+		for (Socket socket : sockets) {
+			closeQuietly(socket);
+		}
+		for (Worker worker : workers) {
+			worker.interrupt();
+		}
+		if (watchdog != null) {
+			watchdog.interrupt();
+		}
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				final Socket socket = serverSocket.accept();
+				open.add(socket);
+				if (closed) {
+					// close() may have taken its copy of the open connections before this one was added
+					closeQuietly(socket);
+					break;
+				}
+				socket.setTcpNoDelay(true);
+				socket.setSoTimeout(timeout);
+				connections.add(socket);
+			} catch (IOException e) {
+				if (!closed) {
+					System.err.println("accept failed: " + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes the connections whose worker has been blocked in a write for longer than the timeout; a socket has a read timeout but no write timeout.
+	 */
+	private void watch() {
+		while (!closed) {
+			try {
+				Thread.sleep(Math.max(1, timeout / 4));
+			} catch (InterruptedException e) {
+				break;
+			}
+			final long now = System.currentTimeMillis();
+			for (Worker worker : workers) {
+				// the socket first: a write start read after it belongs to this socket or a later one
+				final Socket socket = worker.socket;
+				final long writeStart = worker.writeStart;
+				if (socket != null && writeStart != 0 && now - writeStart > timeout) {
+					System.err.println(worker.getName() + ": " + socket.getRemoteSocketAddress() + ": write timed out");
+					closeQuietly(socket);
+				}
+			}
+		}
+	}
+
+	private final class Worker extends Thread {
+		private final PreAnalyzedWriter.RecordOutput frame = new PreAnalyzedWriter.RecordOutput();
+		private final PreAnalyzedWriter.TokenEncoder encoder = new PreAnalyzedWriter.TokenEncoder();
+		/** The connection being served, or null */
+		volatile Socket socket;
+		/** When the pending write to the connection started, or 0 */
+		volatile long writeStart;
+
+		Worker(String name) {
+			super(name);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				warm();
+			} catch (IOException e) {
+				System.err.println(getName() + ": warm-up failed: " + e);
+			}
+			while (!closed) {
+				final Socket socket;
+				try {
+					socket = connections.take();
+				} catch (InterruptedException e) {
+					break;
+				}
+				this.socket = socket;
+				try {
+					serve(socket);
+				} catch (IOException e) {
+					if (!closed) {
+						System.err.println(getName() + ": " + socket.getRemoteSocketAddress() + ": " + e);
+					}
+				} finally {
+					this.socket = null;
+					closeQuietly(socket);
+				}
+			}
+		}
+
+		/** Builds this thread's components of every analyzer and runs them on sample text */
+		private void warm() throws IOException {
+			for (Map.Entry<String, Analyzer> entry : analyzers.entrySet()) {
+				final String[] texts = Analyzers.sampleText(entry.getKey(), 100, new Random(42));
+				for (int i = 0; i < warmup; i++) {
+					final TokenStream ts = entry.getValue().tokenStream("warmup", texts[i % texts.length]);
+					try {
+						ts.reset();
+						while (ts.incrementToken()) {
+							// consume
+						}
+						ts.end();
+					} finally {
+						ts.close();
+					}
+				}
+			}
+		}
+
+		private void serve(Socket socket) throws IOException {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new TimedOutputStream(socket.getOutputStream()), 1 << 16));
+			while (true) {
+				final int request = in.read();
+				if (request == -1 || request == END) {
+					break;
+				}
+				if (request != DOCUMENT) {
+					throw new IOException("unknown request " + request);
+				}
+				final String analyzerName = readName(in);
+				final String field = readName(in);
+				final ChunkedInputStream text = new ChunkedInputStream(in);
+				analyze(analyzerName, field, text, out);
+				text.drain();
+				out.flush();
+			}
+			out.flush();
+		}
+
+		private void analyze(String analyzerName, String field, ChunkedInputStream text, DataOutputStream out) throws IOException {
+			final Analyzer analyzer = analyzers.get(analyzerName);
+			if (analyzer == null) {
+				writeError(out, "unknown analyzer " + analyzerName);
+				return;
+			}
+			frame.reset();
+			try {
+				final TokenStream ts = analyzer.tokenStream(field, new InputStreamReader(text, "UTF-8"));
+				encoder.start(ts);
+				try {
+					ts.reset();
+					while (ts.incrementToken()) {
+						encoder.writeToken(frame);
+						if (frame.length >= FRAME_SIZE) {
+							writeFrame(out);
+						}
+					}
+					ts.end();
+					encoder.writeEnd(frame);
+				} finally {
+					ts.close();
+				}
+			} catch (RuntimeException e) {
+				writeError(out, e.toString());
+				return;
+			}
+			writeFrame(out);
+			out.writeInt(0);
+		}
+
+		/** Marks the writes to the connection for the watchdog */
+		private final class TimedOutputStream extends FilterOutputStream {
+			TimedOutputStream(OutputStream out) {
+				super(out);
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				writeStart = System.currentTimeMillis();
+				try {
+					out.write(b);
+				} finally {
+					writeStart = 0;
+				}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				writeStart = System.currentTimeMillis();
+				try {
+					out.write(b, off, len);
+				} finally {
+					writeStart = 0;
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				writeStart = System.currentTimeMillis();
+				try {
+					out.flush();
+				} finally {
+					writeStart = 0;
+				}
+			}
+		}
+
+		private void writeFrame(DataOutputStream out) throws IOException {
+			if (frame.length > 0) {
+				out.writeInt(frame.length);
+				out.write(frame.bytes, 0, frame.length);
+				frame.reset();
+			}
+		}
+	}
+
+	private void closeQuietly(Socket socket) {
+		open.remove(socket);
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	private static String readName(DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[in.readUnsignedByte()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void writeError(DataOutputStream out, String message) throws IOException {
+		final byte[] bytes = message.getBytes("UTF-8");
+		out.writeInt(-1);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * The text of one document, read from its chunks as the analyzer asks for it. Closing it leaves the connection open.
+	 */
+	private static final class ChunkedInputStream extends InputStream {
+		private final DataInputStream in;
+		private int remaining = 0;
+		private boolean eof = false;
+
+		ChunkedInputStream(DataInputStream in) {
+			this.in = in;
+		}
+
+		/** Moves to the next chunk if the current one is used up, returns false after the last one */
+		private boolean nextChunk() throws IOException {
+			while (remaining == 0 && !eof) {
+				final int length = in.readInt();
+				if (length < 0) {
+					throw new IOException("negative chunk length " + length);
+				}
+				if (length == 0) {
+					eof = true;
+				} else {
+					remaining = length;
+				}
+			}
+			return !eof;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!nextChunk()) {
+				return -1;
+			}
+			remaining--;
+			return in.readUnsignedByte();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!nextChunk()) {
+				return -1;
+			}
+			final int n = in.read(b, off, Math.min(len, remaining));
+			if (n < 0) {
+				throw new EOFException("connection closed inside a chunk");
+			}
+			remaining -= n;
+			return n;
+		}
+
+		/** Skips what the analyzer did not read, up to the end of the document */
+		void drain() throws IOException {
+			while (nextChunk()) {
+				final int n = in.skipBytes(remaining);
+				if (n > 0) {
+					remaining -= n;
+				} else {
+					in.readByte(); // throws at the end of the stream
+					remaining--;
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			// the connection stays open for the next document
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = 7777;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int warmup = 1000;
+		int timeout = DEFAULT_TIMEOUT;
+
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if ("-port".equals(arg)) {
+				port = Integer.parseInt(args[++i]);
+			} else if ("-threads".equals(arg)) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-warmup".equals(arg)) {
+				warmup = Integer.parseInt(args[++i]);
+			} else if ("-timeout".equals(arg)) {
+				timeout = Integer.parseInt(args[++i]);
+			} else {
+				System.err.println("unknown argument " + arg);
+				System.err.println("usage: AnalysisServer [-port 7777] [-threads N] [-warmup N] [-timeout ms]");
+				System.exit(1);
+			}
+		}
+
+		final AnalysisServer server = new AnalysisServer(port, defaultAnalyzers(), threads, warmup, timeout);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				try {
+					server.close();
+				} catch (IOException e) {
+					// exiting anyway
+				}
+			}
+		});
+		server.start();
+		System.out.println("# listening on " + server.serverSocket.getInetAddress().getHostAddress() + ":" + server.getPort() + " threads=" + threads + " timeout=" + timeout);
+		server.acceptor.join();
+	}
+}
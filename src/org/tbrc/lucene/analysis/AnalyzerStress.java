@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+
+/**
+ * A multi-threaded load harness that drives one shared analyzer the way the search tier does, with many threads analyzing short queries at once.
+ * <p>
+ * For each thread count the harness reports throughput, the p50/p99/p999 latency of a single query analysis, the bytes allocated per query (when the
+ * JVM supports per-thread allocation counters) and how many distinct token streams the analyzer's {@link Analyzer.ReuseStrategy} handed out. The
+ * analyzers use the default {@link Analyzer#GLOBAL_REUSE_STRATEGY}, which keeps one set of components per thread for all fields, so the last figure
+ * should stay at one stream per thread; anything above that means components are rebuilt under load.
+ * <p>
+ * Each thread analyzes the warm-up queries before the measured ones, so the measured threads have built their components and the code is compiled
+ * before the clock starts.
+ * <p>
+ * The query mix is generated from a fixed seed, or read from a file with one query per line, so runs with the same arguments are comparable. Output is
+ * tab separated with a header line per run.
+ *
+ * <pre>
+ * java org.tbrc.lucene.analysis.AnalyzerStress [-analyzer tibetan|wylie|mixed|chunk] [-threads 1,2,4,8,16]
+ *      [-queries N] [-warmup N] [-fields N] [-seed N] [-file queries.txt]
+ * </pre>
+ */
+public final class AnalyzerStress {
+
+	private AnalyzerStress() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		String analyzerName = "tibetan";
+		int[] threadCounts = { 1, 2, 4, 8, 16 };
+		int queriesPerThread = 100000;
+		int warmup = 20000;
+		int fields = 1;
+		long seed = 42;
+		String file = null;
+
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if ("-analyzer".equals(arg)) {
+				analyzerName = args[++i];
+			} else if ("-threads".equals(arg)) {
+				final String[] parts = args[++i].split(",");
+				threadCounts = new int[parts.length];
+				for (int j = 0; j < parts.length; j++) {
+					threadCounts[j] = Integer.parseInt(parts[j].trim());
+				}
+			} else if ("-queries".equals(arg)) {
+				queriesPerThread = Integer.parseInt(args[++i]);
+			} else if ("-warmup".equals(arg)) {
+				warmup = Integer.parseInt(args[++i]);
+			} else if ("-fields".equals(arg)) {
+				fields = Integer.parseInt(args[++i]);
+			} else if ("-seed".equals(arg)) {
+				seed = Long.parseLong(args[++i]);
+			} else if ("-file".equals(arg)) {
+				file = args[++i];
+			} else {
+				System.err.println("unknown argument " + arg);
+				System.err.println("usage: AnalyzerStress [-analyzer tibetan|wylie|mixed|chunk] [-threads 1,2,4] [-queries N] [-warmup N] [-fields N] "
+						+ "[-seed N] [-file queries.txt]");
+				System.exit(1);
+			}
+		}
+
+		final Analyzer analyzer = Analyzers.create(analyzerName);
+		final String[] queries = file != null ? readQueries(file) : Analyzers.sampleText(analyzerName, 10000, new Random(seed));
+		final String[] fieldNames = new String[fields];
+		for (int i = 0; i < fields; i++) {
+			fieldNames[i] = "field" + i;
+		}
+
+		System.out.println("# jvm=" + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + " cpus="
+				+ Runtime.getRuntime().availableProcessors() + " analyzer=" + analyzerName + " queries=" + queries.length + " fields=" + fields + " seed="
+				+ seed + (file != null ? " file=" + file : ""));
+		System.out.println("threads\tqueries\tqps\tp50_us\tp99_us\tp999_us\tmax_us\tbytes_per_query\tstreams\tstreams_per_thread");
+
+		for (int threads : threadCounts) {
+			final Result result = run(analyzer, queries, fieldNames, threads, warmup, queriesPerThread);
+			System.out.println(result);
+		}
+		analyzer.close();
+	}
+
+	private static String[] readQueries(String file) throws IOException {
+		final List<String> queries = new ArrayList<String>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() > 0) {
+					queries.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (queries.isEmpty()) {
+			throw new IllegalArgumentException(file + " has no queries");
+		}
+		return queries.toArray(new String[queries.size()]);
+	}
+
+	private static Result run(final Analyzer analyzer, final String[] queries, final String[] fieldNames, final int threads, final int warmup,
+			final int perThread) throws InterruptedException {
+		final long[][] latencies = new long[threads][];
+		final long[] allocated = new long[threads];
+		final int[] streams = new int[threads];
+		final Throwable[] failures = new Throwable[threads];
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			final Thread thread = new Thread("stress-" + t) {
+				@Override
+				public void run() {
+					try {
+						final long[] times = new long[perThread];
+						final IdentityHashMap<TokenStream, Boolean> seen = new IdentityHashMap<TokenStream, Boolean>();
+						int q = id * 7919 % queries.length;
+						try {
+							// warm up on this thread, so it has built its components before it is measured
+							for (int i = 0; i < warmup; i++) {
+								analyze(analyzer, fieldNames[i % fieldNames.length], queries[(q + i) % queries.length]);
+							}
+						} finally {
+							ready.countDown();
+						}
+						start.await();
+						final long allocBefore = allocatedBytes();
+						for (int i = 0; i < perThread; i++) {
+							final String field = fieldNames[i % fieldNames.length];
+							final long begin = System.nanoTime();
+							final TokenStream ts = analyze(analyzer, field, queries[q]);
+							times[i] = System.nanoTime() - begin;
+							seen.put(ts, Boolean.TRUE);
+							if (++q == queries.length) {
+								q = 0;
+							}
+						}
+						final long allocAfter = allocatedBytes();
+						allocated[id] = allocBefore < 0 || allocAfter < 0 ? -1 : allocAfter - allocBefore;
+						latencies[id] = times;
+						streams[id] = seen.size();
+					} catch (Throwable e) {
+						failures[id] = e;
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		ready.await();
+		final long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		final long elapsed = System.nanoTime() - begin;
+
+		for (Throwable failure : failures) {
+			if (failure != null) {
+				throw new RuntimeException("analysis failed", failure);
+			}
+		}
+
+		final long[] all = new long[threads * perThread];
+		long totalAllocated = 0;
+		int totalStreams = 0;
+		for (int t = 0; t < threads; t++) {
+			System.arraycopy(latencies[t], 0, all, t * perThread, perThread);
+			totalAllocated = totalAllocated < 0 || allocated[t] < 0 ? -1 : totalAllocated + allocated[t];
+			totalStreams += streams[t];
+		}
+		Arrays.sort(all);
+		return new Result(threads, all, elapsed, totalAllocated, totalStreams);
+	}
+
+	/** Analyzes one query and returns the token stream used */
+	private static TokenStream analyze(Analyzer analyzer, String field, String query) throws IOException {
+		final TokenStream ts = analyzer.tokenStream(field, query);
+		try {
+			ts.reset();
+			while (ts.incrementToken()) {
+				// consume
+			}
+			ts.end();
+		} finally {
+			ts.close();
+		}
+		return ts;
+	}
+
+	/** Bytes allocated so far by the current thread, or -1 if the JVM cannot tell. */
+	private static long allocatedBytes() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	private static final class Result {
+		final int threads;
+		final long[] sortedNanos;
+		final long elapsedNanos;
+		final long allocated;
+		final int streams;
+
+		Result(int threads, long[] sortedNanos, long elapsedNanos, long allocated, int streams) {
+			this.threads = threads;
+			this.sortedNanos = sortedNanos;
+			this.elapsedNanos = elapsedNanos;
+			this.allocated = allocated;
+			this.streams = streams;
+		}
+
+		private double percentileMicros(double p) {
+			final int index = Math.min(sortedNanos.length - 1, (int) Math.ceil(p * sortedNanos.length) - 1);
+			return sortedNanos[Math.max(0, index)] / 1000.0;
+		}
+
+		@Override
+		public String toString() {
+			final int n = sortedNanos.length;
+			return String.format("%d\t%d\t%.0f\t%.2f\t%.2f\t%.2f\t%.2f\t%s\t%d\t%.2f", threads, n, n / (elapsedNanos / 1e9), percentileMicros(0.50),
+					percentileMicros(0.99), percentileMicros(0.999), sortedNanos[n - 1] / 1000.0, allocated < 0 ? "n/a" : Long.toString(allocated / n),
+					streams, streams / (double) threads);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.util.Random;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.util.Version;
+
+/**
+ * The analyzers of this package by name, and sample text for each, shared by {@link AnalysisServer}, {@link AnalyzerStress} and
+ * {@link TokenizerBenchmark}.
+ */
+final class Analyzers {
+
+	/** The names accepted by {@link #create(String)} */
+	static final String[] NAMES = { "tibetan", "wylie", "mixed", "chunk" };
+
+	static final String[] TIBETAN_SYLLABLES = {
+			// "bkra", "shis", "bde", "legs", "sangs", "rgyas", "chos", "dpal", "ldan",
+			"\u0F56\u0F40\u0FB2", "\u0F64\u0F72\u0F66", "\u0F56\u0F51\u0F7A", "\u0F63\u0F7A\u0F42\u0F66", "\u0F66\u0F44\u0F66",
+			"\u0F62\u0F92\u0FB1\u0F66", "\u0F46\u0F7C\u0F66", "\u0F51\u0F54\u0F63", "\u0F63\u0FA1\u0F53",
+			// "rin", "po", "che", "bstan", "'phags", "sems", "ba", "ma", "rgyal",
+			"\u0F62\u0F72\u0F53", "\u0F54\u0F7C", "\u0F46\u0F7A", "\u0F56\u0F66\u0F9F\u0F53", "\u0F60\u0F55\u0F42\u0F66",
+			"\u0F66\u0F7A\u0F58\u0F66", "\u0F56", "\u0F58", "\u0F62\u0F92\u0FB1\u0F63",
+			// particles "gis", "kyis", "gyis", "yis", "na", "dang", "kyi"
+			"\u0F42\u0F72\u0F66", "\u0F40\u0FB1\u0F72\u0F66", "\u0F42\u0FB1\u0F72\u0F66", "\u0F61\u0F72\u0F66", "\u0F53",
+			"\u0F51\u0F44", "\u0F40\u0FB1\u0F72",
+	};
+
+	static final String[] WYLIE_SYLLABLES = {
+			"bkra", "shis", "bde", "legs", "sangs", "rgyas", "chos", "dpal", "ldan", "rin", "po", "che", "bstan", "'phags", "khrungs", "sems", "rtsa", "ba",
+			"ma", "pad+ma", "badz+ra", "k+Sha", "dhA", "ra", "NI", "rgyal", "ba'i",
+			// particles
+			"gis", "kyis", "gyis", "yis", "na", "dang", "kyi", "gi", "la", "du",
+	};
+
+	static final String[] ENGLISH_WORDS = { "Karmapa", "Collected", "Works", "volume", "Lhasa", "edition", "commentary", "Tengyur", "Kangyur", };
+
+	private Analyzers() {
+	}
+
+	/** Creates the analyzer called <tt>name</tt>, one of {@link #NAMES}, with its default settings */
+	static Analyzer create(String name) {
+		if ("tibetan".equals(name)) {
+			return new TibetanAnalyzer(Version.LUCENE_44);
+		} else if ("wylie".equals(name)) {
+			return new WylieAnalyzer(Version.LUCENE_44);
+		} else if ("mixed".equals(name)) {
+			return new MixedScriptAnalyzer(Version.LUCENE_44);
+		} else if ("chunk".equals(name)) {
+			return new ChunkAnalyzer(Version.LUCENE_44);
+		}
+		throw new IllegalArgumentException("unknown analyzer " + name);
+	}
+
+	/**
+	 * Generates <tt>count</tt> texts of one to eight syllables in the script of the analyzer called <tt>analyzerName</tt>. Syllables are drawn with a
+	 * skew towards the start of each list so that, as in real query logs, a few syllables dominate.
+	 */
+	static String[] sampleText(String analyzerName, int count, Random random) {
+		final String[] queries = new String[count];
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.setLength(0);
+			final int syllables = 1 + Math.min(7, (int) Math.abs(random.nextGaussian() * 3));
+			for (int j = 0; j < syllables; j++) {
+				final String[] pool;
+				if ("tibetan".equals(analyzerName)) {
+					pool = TIBETAN_SYLLABLES;
+				} else if ("mixed".equals(analyzerName)) {
+					final int r = random.nextInt(10);
+					pool = r < 5 ? TIBETAN_SYLLABLES : r < 9 ? WYLIE_SYLLABLES : ENGLISH_WORDS;
+				} else {
+					pool = WYLIE_SYLLABLES;
+				}
+				final double u = random.nextDouble();
+				final String syllable = pool[(int) (u * u * pool.length)];
+				if (pool == TIBETAN_SYLLABLES) {
+					// syllables are separated by a tsheg
+					sb.append(syllable).append('\u0F0B');
+				} else {
+					if (sb.length() > 0) {
+						sb.append(' ');
+					}
+					sb.append(syllable);
+				}
+			}
+			queries[i] = sb.toString();
+		}
+		return queries;
+	}
+}
@@ -46,10 +46,12 @@ import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.core.StopFilter;
 import org.apache.lucene.analysis.util.CharArraySet;
 import org.apache.lucene.analysis.util.CharTokenizer;
+import org.apache.lucene.analysis.util.WordlistLoader;
 import org.apache.lucene.util.Version;
 
 /**
- * Uses {@link WylieTokenizer} to create streams of simple Wylie tokens. The '+' character is currently included. In a later version the '+' will be deleted
+ * Uses {@link ChunkTokenizer} to create streams of simple Wylie tokens. Chunks longer than the maximum chunk length are split at syllable boundaries,
+ * emitted whole or dropped, see {@link ChunkTokenizer.OverflowPolicy}. The '+' character is currently included. In a later version the '+' will be deleted
  * from the token so that pad+ma and padma will be identical for search and indexing.
  * <p>
  * <a name="version">You must specify the required {@link Version} compatibility when creating {@link CharTokenizer}:
@@ -80,6 +82,9 @@ public final class ChunkAnalyzer extends Analyzer {
 	}
 
 	private final Version matchVersion;
+	private final CharArraySet stopWords;
+	private final int maxChunkLength;
+	private final ChunkTokenizer.OverflowPolicy overflowPolicy;
 
 	/**
 	 * Creates a new {@link SimpleAnalyzer}
@@ -88,18 +93,53 @@ public final class ChunkAnalyzer extends Analyzer {
 	 *            Lucene version to match See {@link <a href="#version">above</a>}
 	 */
 	public ChunkAnalyzer(Version matchVersion) {
+		this(matchVersion, WYLIE_STOP_WORDS_SET);
+	}
+
+	/**
+	 * Creates a new {@link ChunkAnalyzer} with its own stop words, for instance a list written by {@link StopListBuilder} and read with
+	 * {@link WordlistLoader#getWordSet(Reader, String, Version)}
+	 * 
+	 * @param matchVersion
+	 *            Lucene version to match See {@link <a href="#version">above</a>}
+	 * @param stopWords
+	 *            the stop words, in their analyzed form
+	 */
+	public ChunkAnalyzer(Version matchVersion, CharArraySet stopWords) {
+		this(matchVersion, stopWords, ChunkTokenizer.DEFAULT_MAX_CHUNK_LENGTH, ChunkTokenizer.OverflowPolicy.SPLIT);
+	}
+
+	/**
+	 * Creates a new {@link ChunkAnalyzer} with its own stop words and handling of long chunks
+	 * 
+	 * @param matchVersion
+	 *            Lucene version to match See {@link <a href="#version">above</a>}
+	 * @param stopWords
+	 *            the stop words, in their analyzed form
+	 * @param maxChunkLength
+	 *            the longest chunk in chars, see {@link ChunkTokenizer}
+	 * @param overflowPolicy
+	 *            what to do with longer chunks
+	 */
+	public ChunkAnalyzer(Version matchVersion, CharArraySet stopWords, int maxChunkLength, ChunkTokenizer.OverflowPolicy overflowPolicy) {
+		if (maxChunkLength < 2 || maxChunkLength > ChunkTokenizer.MAX_CHUNK_LENGTH_LIMIT) {
+			throw new IllegalArgumentException("maxChunkLength must be between 2 and " + ChunkTokenizer.MAX_CHUNK_LENGTH_LIMIT + ": " + maxChunkLength);
+		}
 		this.matchVersion = matchVersion;
+		this.stopWords = CharArraySet.unmodifiableSet(CharArraySet.copy(matchVersion, stopWords));
+		this.maxChunkLength = maxChunkLength;
+		this.overflowPolicy = overflowPolicy;
 	}
 
 	@SuppressWarnings("deprecation")
 	@Override
 	protected TokenStreamComponents createComponents(final String fieldName, final Reader reader)
 	{
-		Tokenizer source = new WylieTokenizer(matchVersion, reader);
+		Tokenizer source = new ChunkTokenizer(matchVersion, TibAttributeFactory.INSTANCE, reader, maxChunkLength, overflowPolicy);
 
 		TokenFilter filter = new PlusFilter(source);
 		filter = new EndingFilter(filter);
-		filter = new StopFilter(Version.LUCENE_43, filter, WYLIE_STOP_WORDS_SET);
+		filter = new StopFilter(Version.LUCENE_43, filter, stopWords);
 		((StopFilter) filter).setEnablePositionIncrements(false);
 
 		return new TokenStreamComponents(source, filter);
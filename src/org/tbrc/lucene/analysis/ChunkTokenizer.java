@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.util.CharTokenizer;
+import org.apache.lucene.analysis.util.CharacterUtils;
+import org.apache.lucene.analysis.util.CharacterUtils.CharacterBuffer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Version;
+
+/**
+ * A ChunkTokenizer divides Wylie text into lower cased chunks like
+ * {@link WylieTokenizer}, but with a configurable maximum chunk length and an
+ * explicit {@link OverflowPolicy} for longer chunks, where
+ * {@link CharTokenizer} silently cuts every 255 chars.
+ * <p>
+ * Long unspaced chunks are common in older data. By default they are split
+ * at the last syllable boundary that fits, so the pieces are still whole
+ * syllables. The boundaries are found with a heuristic: a syllable ends after
+ * its vowel and, if they are not followed by a vowel or a subjoined letter,
+ * a suffix and a second suffix: <tt>d</tt> after <tt>n</tt>, <tt>r</tt> or
+ * <tt>l</tt>, <tt>s</tt> after <tt>g</tt>, <tt>ng</tt>, <tt>b</tt> or <tt>m</tt>.
+ * <p>
+ * A chunk is read into a buffer that grows with {@link ArrayUtil#grow(char[], int)}
+ * up to the maximum length, and no further, whatever the input; a buffer
+ * grown by a long chunk is given back on {@link #reset()}.
+ * <p>
+ * <a name="version"/>
+ * You must specify the required {@link Version} compatibility when creating
+ * {@link ChunkTokenizer}:
+ * <ul>
+ * <li>As of 3.1, {@link CharTokenizer} uses an int based API to normalize and
+ * detect token characters. See {@link CharTokenizer#isTokenChar(int)} and
+ * {@link CharTokenizer#normalize(int)} for details.</li>
+ * </ul>
+ * Derived from Lucene 4.4.0 analysis.util.CharTokenizer.java
+ */
+public final class ChunkTokenizer extends Tokenizer {
+
+  /** What to do with a chunk longer than the maximum length */
+  public static enum OverflowPolicy {
+    /** Split the chunk into pieces at syllable boundaries */
+    SPLIT,
+    /** Emit the chunk as one token, up to {@link ChunkTokenizer#MAX_CHUNK_LENGTH_LIMIT} */
+    EMIT,
+    /** Drop the chunk */
+    DROP
+  }
+
+  /** The default maximum chunk length, that of {@link CharTokenizer} */
+  public static final int DEFAULT_MAX_CHUNK_LENGTH = 255;
+
+  /**
+   * The longest chunk that is emitted whole with {@link OverflowPolicy#EMIT}: a
+   * chunk of this many chars never exceeds {@link IndexWriter#MAX_TERM_LENGTH}
+   * in UTF-8. Longer chunks are split, since the index would skip them.
+   */
+  public static final int MAX_CHUNK_LENGTH_LIMIT = IndexWriter.MAX_TERM_LENGTH / 3;
+
+  private static final int INITIAL_BUFFER_SIZE = 64;
+
+  /** Chars read past the maximum length: a suffix, a second suffix and the next char */
+  private static final int LOOKAHEAD = 4;
+
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+  private final CharacterUtils charUtils;
+  private final CharacterBuffer ioBuffer = CharacterUtils.newCharacterBuffer(4096);
+  private int offset = 0, bufferIndex = 0, dataLen = 0, finalOffset = 0;
+
+  private final int maxChunkLength;
+  private final OverflowPolicy overflowPolicy;
+
+  /** The lower cased chars of the current chunk that have not been emitted yet */
+  private char[] pending = new char[INITIAL_BUFFER_SIZE];
+  private int pendingLength = 0;
+  /** The input offset of pending[0] */
+  private int pendingStart = 0;
+  /** True while the chunk goes on past the pending chars */
+  private boolean inChunk = false;
+
+  /**
+   * Construct a new ChunkTokenizer that splits chunks longer than
+   * {@link #DEFAULT_MAX_CHUNK_LENGTH}.
+   *
+   * @param matchVersion
+   *          Lucene version to match See {@link <a href="#version">above</a>}
+   * @param in
+   *          the input to split up into tokens
+   */
+  public ChunkTokenizer(Version matchVersion, Reader in) {
+    this(matchVersion, AttributeFactory.DEFAULT_ATTRIBUTE_FACTORY, in, DEFAULT_MAX_CHUNK_LENGTH, OverflowPolicy.SPLIT);
+  }
+
+  /**
+   * Construct a new ChunkTokenizer using a given
+   * {@link org.apache.lucene.util.AttributeSource.AttributeFactory}.
+   *
+   * @param matchVersion
+   *          Lucene version to match See {@link <a href="#version">above</a>}
+   * @param factory
+   *          the attribute factory to use for this {@link Tokenizer}
+   * @param in
+   *          the input to split up into tokens
+   * @param maxChunkLength
+   *          the longest chunk in chars, at most {@link #MAX_CHUNK_LENGTH_LIMIT}
+   * @param overflowPolicy
+   *          what to do with longer chunks
+   */
+  public ChunkTokenizer(Version matchVersion, AttributeFactory factory, Reader in, int maxChunkLength, OverflowPolicy overflowPolicy) {
+    super(factory, in);
+    if (maxChunkLength < 2 || maxChunkLength > MAX_CHUNK_LENGTH_LIMIT) {
+      throw new IllegalArgumentException("maxChunkLength must be between 2 and " + MAX_CHUNK_LENGTH_LIMIT + ": " + maxChunkLength);
+    }
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("overflowPolicy must not be null");
+    }
+    charUtils = CharacterUtils.getInstance(matchVersion);
+    this.maxChunkLength = maxChunkLength;
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /** Same chars as {@link WylieCharsTokenizer}.*/
+  private static boolean isTokenChar(int c) {
+    return Character.isLetterOrDigit(c) || c == '\'' || c == '+';
+  }
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    clearAttributes();
+    final int limit = overflowPolicy == OverflowPolicy.EMIT ? MAX_CHUNK_LENGTH_LIMIT : maxChunkLength;
+    while (true) {
+      if (pendingLength == 0 && !inChunk) {
+        // skip to the start of the next chunk
+        int c;
+        while ((c = peek()) != -1 && !isTokenChar(c)) {
+          bufferIndex += Character.charCount(c);
+        }
+        if (c == -1) {
+          finalOffset = correctOffset(offset);
+          return false;
+        }
+        pendingStart = offset + bufferIndex;
+        inChunk = true;
+      }
+
+      // read a few chars more than fit, to tell whether the chunk overflows
+      // and to see past the last syllable that fits
+      fill(limit + LOOKAHEAD);
+      if (pendingLength <= limit) {
+        return emit(pendingLength);
+      }
+      if (overflowPolicy == OverflowPolicy.DROP) {
+        skipChunk();
+        continue;
+      }
+      int cut = syllableBoundary(pending, pendingLength, limit);
+      if (Character.isHighSurrogate(pending[cut - 1])) {
+        cut--; // never split a surrogate pair
+      }
+      return emit(cut);
+    }
+  }
+
+  /** Emits the first <tt>length</tt> pending chars and keeps the rest.*/
+  private boolean emit(int length) {
+    termAtt.copyBuffer(pending, 0, length);
+    offsetAtt.setOffset(correctOffset(pendingStart), finalOffset = correctOffset(pendingStart + length));
+    pendingLength -= length;
+    System.arraycopy(pending, length, pending, 0, pendingLength);
+    pendingStart += length;
+    return true;
+  }
+
+  /** Returns the next code point without consuming it, or -1 at the end of the input.*/
+  private int peek() throws IOException {
+    if (bufferIndex >= dataLen) {
+      offset += dataLen;
+      charUtils.fill(ioBuffer, input); // read supplementary char aware with CharacterUtils
+      dataLen = ioBuffer.getLength();
+      bufferIndex = 0;
+      if (dataLen == 0) {
+        return -1;
+      }
+    }
+    return charUtils.codePointAt(ioBuffer.getBuffer(), bufferIndex, dataLen);
+  }
+
+  /** Reads the chunk into the pending chars until it ends or there are more than <tt>limit</tt>.*/
+  private void fill(int limit) throws IOException {
+    while (inChunk && pendingLength < limit) {
+      final int c = peek();
+      if (c == -1 || !isTokenChar(c)) {
+        inChunk = false;
+        break;
+      }
+      bufferIndex += Character.charCount(c);
+      if (pendingLength + 2 > pending.length) {
+        pending = ArrayUtil.grow(pending, pendingLength + 2);
+      }
+      pendingLength += Character.toChars(Character.toLowerCase(c), pending, pendingLength);
+    }
+  }
+
+  /** Discards the pending chars and the rest of the chunk, without buffering it.*/
+  private void skipChunk() throws IOException {
+    pendingLength = 0;
+    while (inChunk) {
+      final int c = peek();
+      if (c == -1 || !isTokenChar(c)) {
+        inChunk = false;
+      } else {
+        bufferIndex += Character.charCount(c);
+      }
+    }
+  }
+
+  private static boolean isVowel(char c) {
+    return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+  }
+
+  /** Returns the length of the suffix at <tt>i</tt>, or 0 if there is none.*/
+  private static int suffixLength(char[] s, int i, int length) {
+    switch (s[i]) {
+    case 'n':
+      return i + 1 < length && s[i + 1] == 'g' ? 2 : 1;
+    case 'g': case 'd': case 'b': case 'm': case '\'': case 'r': case 'l': case 's':
+      return 1;
+    default:
+      return 0;
+    }
+  }
+
+  /**
+   * True if <tt>c</tt> can follow the suffix ending in <tt>suffix</tt>: <tt>d</tt>
+   * follows <tt>n</tt>, <tt>r</tt> and <tt>l</tt>, <tt>s</tt> follows <tt>g</tt>,
+   * <tt>ng</tt>, <tt>b</tt> and <tt>m</tt>.
+   */
+  private static boolean isSecondSuffix(char suffix, char c) {
+    if (c == 'd') {
+      return suffix == 'n' || suffix == 'r' || suffix == 'l';
+    }
+    if (c == 's') {
+      return suffix == 'g' || suffix == 'b' || suffix == 'm';
+    }
+    return false;
+  }
+
+  /** True if the char at <tt>i</tt> can not start a syllable after a suffix.*/
+  private static boolean joinsPrevious(char[] s, int i) {
+    final char c = s[i];
+    return isVowel(c) || c == 'h' || c == 'y' || c == 'r' || c == 'w';
+  }
+
+  /**
+   * Returns the last syllable boundary in the first <tt>limit</tt> chars of
+   * the <tt>length</tt> chars read from a chunk that is longer than
+   * <tt>limit</tt>, or <tt>limit</tt> if there is none.
+   */
+  static int syllableBoundary(char[] s, int length, int limit) {
+    int last = 0;
+    int i = 0;
+    while (i < limit) {
+      while (i < length && !isVowel(s[i])) {
+        i++;
+      }
+      if (i == length) {
+        break;
+      }
+      while (i < length && isVowel(s[i])) {
+        i++;
+      }
+      int end = i;
+      final int suffix = i < length ? suffixLength(s, i, length) : 0;
+      if (suffix > 0) {
+        if (end + suffix >= length) {
+          break; // can not tell where the syllable ends
+        }
+        if (!joinsPrevious(s, end + suffix)) {
+          final char first = s[end + suffix - 1];
+          end += suffix;
+          if (isSecondSuffix(first, s[end])) {
+            if (end + 1 >= length) {
+              break;
+            }
+            if (!isVowel(s[end + 1]) && s[end + 1] != 'h') {
+              end++;
+            }
+          }
+        }
+      }
+      if (end > limit) {
+        break;
+      }
+      last = end;
+      i = end;
+    }
+    return last > 0 ? last : limit;
+  }
+
+  @Override
+  public void end() {
+    // set final offset
+    offsetAtt.setOffset(finalOffset, finalOffset);
+  }
+
+  @Override
+  public void reset() throws IOException {
+    bufferIndex = 0;
+    offset = 0;
+    dataLen = 0;
+    finalOffset = 0;
+    pendingLength = 0;
+    pendingStart = 0;
+    inChunk = false;
+    if (pending.length > 4 * INITIAL_BUFFER_SIZE) {
+      // give back the buffer grown by a long chunk
+      pending = new char[INITIAL_BUFFER_SIZE];
+    }
+    ioBuffer.reset(); // make sure to reset the IO buffer!!
+  }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Reader;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.StopFilter;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.analysis.util.CharTokenizer;
+import org.apache.lucene.analysis.util.WordlistLoader;
+import org.apache.lucene.util.Version;
+
+/**
+ * An Analyzer for fields that mix Unicode Tibetan, Wylie and English. It uses {@link MixedScriptTokenizer} to detect the script of each run in a single pass
+ * and routes each token to the filters of {@link TibetanAnalyzer} or {@link WylieAnalyzer}, so a field no longer needs to be indexed once per analyzer.
+ * <p>
+ * The routing needs no branching: {@link PlusFilter} and {@link EndingFilter} only act on <tt>+</tt> and apostrophes, which a Tibetan token never
+ * contains, and {@link TibEndingFilter} and {@link TibNumeralFilter} only act on U+0F00 block text, which a Wylie token never contains. The two stop
+ * sets cannot collide. Positions and offsets therefore stay those of the single tokenizer. English words are Wylie tokens to the tokenizer and get
+ * the same treatment as in {@link WylieAnalyzer}: lower casing, <tt>+</tt> removal and the <tt>'i</tt>, <tt>'o</tt> ending removal.
+ * <p>
+ * <a name="version">You must specify the required {@link Version} compatibility when creating {@link CharTokenizer}:
+ * <ul>
+ * <li>As of 3.1, {@link MixedScriptTokenizer} uses an int based API to normalize and detect token codepoints. See {@link CharTokenizer#isTokenChar(int)}
+ * and {@link CharTokenizer#normalize(int)} for details.</li>
+ * </ul>
+ * <p>
+ * Derived from Lucene 4.4.0 analysis.core.WhitespaceAnalyzer.java
+ **/
+public final class MixedScriptAnalyzer extends Analyzer {
+	/**
+	 * An unmodifiable set containing the stop words of both {@link TibetanAnalyzer} and {@link WylieAnalyzer}.
+	 */
+	public static final CharArraySet MIXED_STOP_WORDS_SET;
+
+	static {
+		final CharArraySet stopSet = new CharArraySet(Version.LUCENE_44, TibetanAnalyzer.TIBETAN_STOP_WORDS_SET, false);
+		stopSet.addAll(WylieAnalyzer.WYLIE_STOP_WORDS_SET);
+
+		MIXED_STOP_WORDS_SET = CharArraySet.unmodifiableSet(stopSet);
+	}
+
+	private final Version matchVersion;
+	private final CharArraySet stopWords;
+
+	/**
+	 * Creates a new {@link MixedScriptAnalyzer}
+	 *
+	 * @param matchVersion
+	 *            Lucene version to match See {@link <a href="#version">above</a>}
+	 */
+	public MixedScriptAnalyzer(Version matchVersion) {
+		this(matchVersion, MIXED_STOP_WORDS_SET);
+	}
+
+	/**
+	 * Creates a new {@link MixedScriptAnalyzer} with its own stop words, for instance a list written by {@link StopListBuilder} and read with
+	 * {@link WordlistLoader#getWordSet(Reader, String, Version)}
+	 * 
+	 * @param matchVersion
+	 *            Lucene version to match See {@link <a href="#version">above</a>}
+	 * @param stopWords
+	 *            the stop words, in their analyzed form
+	 */
+	public MixedScriptAnalyzer(Version matchVersion, CharArraySet stopWords) {
+		this.matchVersion = matchVersion;
+		this.stopWords = CharArraySet.unmodifiableSet(CharArraySet.copy(matchVersion, stopWords));
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	protected TokenStreamComponents createComponents(final String fieldName, final Reader reader) {
+		Tokenizer source = new MixedScriptTokenizer(matchVersion, TibAttributeFactory.INSTANCE, reader);
+
+		// Wylie chain
+		TokenFilter filter = new PlusFilter(source);
+		filter = new EndingFilter(filter);
+		// Tibetan chain
+		filter = new TibEndingFilter(filter);
+		filter = new TibNumeralFilter(filter);
+		filter = new StopFilter(Version.LUCENE_43, filter, stopWords);
+		((StopFilter) filter).setEnablePositionIncrements(false);
+
+		return new TokenStreamComponents(source, filter);
+	}
+}
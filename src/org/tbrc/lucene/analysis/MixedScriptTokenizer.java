@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.analysis.util.CharTokenizer;
+import org.apache.lucene.analysis.util.CharacterUtils;
+import org.apache.lucene.analysis.util.CharacterUtils.CharacterBuffer;
+import org.apache.lucene.util.Version;
+
+/**
+ * A MixedScriptTokenizer splits fields that mix Unicode Tibetan, Wylie and
+ * English into tokens in a single pass, detecting the script of each run as
+ * it goes.
+ * <p>
+ * Runs of Tibetan Letter and/or Digit characters, as defined by
+ * {@link TibWhitespaceTokenizer}, form tokens of type {@link #TIBETAN_TYPE}.
+ * Runs of characters accepted by {@link WylieCharsTokenizer} outside the
+ * U+0F00 block form tokens of type {@link #WYLIE_TYPE} and are lower cased
+ * like {@link WylieTokenizer}. A change of script always ends a token, so
+ * "<tt>padma</tt>&#x0F54;" yields two tokens.
+ * <p>
+ * Downstream filters can route each token to the matching chain by its
+ * {@link TypeAttribute}; see {@link MixedScriptAnalyzer}.
+ * <p>
+ * Derived from Lucene 4.4.0 analysis.util.CharTokenizer.java
+ */
+public final class MixedScriptTokenizer extends Tokenizer {
+
+  /** Token type for runs of Unicode Tibetan */
+  public static final String TIBETAN_TYPE = "<TIBETAN>";
+
+  /** Token type for runs of Wylie or other Latin script text */
+  public static final String WYLIE_TYPE = "<WYLIE>";
+
+  private static final int MAX_WORD_LEN = 255;
+  private static final int IO_BUFFER_SIZE = 4096;
+
+  private static final int NONE = 0;
+  private static final int TIBETAN = 1;
+  private static final int WYLIE = 2;
+
+  private int offset = 0, bufferIndex = 0, dataLen = 0, finalOffset = 0;
+
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+  private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+  private final CharacterUtils charUtils;
+  private final CharacterBuffer ioBuffer = CharacterUtils.newCharacterBuffer(IO_BUFFER_SIZE);
+
+  /**
+   * Construct a new MixedScriptTokenizer.
+   *
+   * @param matchVersion
+   *          Lucene version to match See {@link <a href="#version">above</a>}
+   * @param in
+   *          the input to split up into tokens
+   */
+  public MixedScriptTokenizer(Version matchVersion, Reader in) {
+    super(in);
+    charUtils = CharacterUtils.getInstance(matchVersion);
+  }
+
+  /**
+   * Construct a new MixedScriptTokenizer using a given
+   * {@link org.apache.lucene.util.AttributeSource.AttributeFactory}.
+   *
+   * @param matchVersion
+   *          Lucene version to match See {@link <a href="#version">above</a>}
+   * @param factory
+   *          the attribute factory to use for this {@link Tokenizer}
+   * @param in
+   *          the input to split up into tokens
+   */
+  public MixedScriptTokenizer(Version matchVersion, AttributeFactory factory, Reader in) {
+    super(factory, in);
+    charUtils = CharacterUtils.getInstance(matchVersion);
+  }
+
+  /** Returns the script of a code point, or NONE if it is not a token char.*/
+  private static int scriptOf(int c) {
+    if (TibWhitespaceTokenizer.isTibLetterOrDigitChar(c)) {
+      return TIBETAN;
+    }
+    if ('\u0F00' <= c && c <= '\u0FFF') {
+      // Tibetan punctuation and marks never belong to a Wylie token
+      return NONE;
+    }
+    if (Character.isLetterOrDigit(c) || c == '\'' || c == '+') {
+      return WYLIE;
+    }
+    return NONE;
+  }
+
+  /**
+   * Same loop as {@link CharTokenizer#incrementToken()}, except that a code
+   * point of a different script than the current token is pushed back and
+   * ends the token.
+   */
+  @Override
+  public final boolean incrementToken() throws IOException {
+    clearAttributes();
+    int length = 0;
+    int start = -1; // this variable is always initialized
+    int end = -1;
+    int script = NONE;
+    char[] buffer = termAtt.buffer();
+    while (true) {
+      if (bufferIndex >= dataLen) {
+        offset += dataLen;
+        charUtils.fill(ioBuffer, input); // read supplementary char aware with CharacterUtils
+        if (ioBuffer.getLength() == 0) {
+          dataLen = 0; // so next offset += dataLen won't decrement offset
+          if (length > 0) {
+            break;
+          } else {
+            finalOffset = correctOffset(offset);
+            return false;
+          }
+        }
+        dataLen = ioBuffer.getLength();
+        bufferIndex = 0;
+      }
+      final int c = charUtils.codePointAt(ioBuffer.getBuffer(), bufferIndex, ioBuffer.getLength());
+      final int charCount = Character.charCount(c);
+      final int cScript = scriptOf(c);
+
+      if (cScript != NONE && (length == 0 || cScript == script)) {
+        bufferIndex += charCount;
+        if (length == 0) {                // start of token
+          assert start == -1;
+          start = offset + bufferIndex - charCount;
+          end = start;
+          script = cScript;
+        } else if (length >= buffer.length-1) { // check if a supplementary could run out of bounds
+          buffer = termAtt.resizeBuffer(2+length); // make sure a supplementary fits in the buffer
+        }
+        end += charCount;
+        final int normalized = script == WYLIE ? Character.toLowerCase(c) : c;
+        length += Character.toChars(normalized, buffer, length); // buffer it, normalized
+        if (length >= MAX_WORD_LEN) // buffer overflow! make sure to check for >= surrogate pair could break == test
+          break;
+      } else if (length > 0) {
+        // at a separator or a change of script: leave c for the next token
+        break;
+      } else {
+        bufferIndex += charCount;
+      }
+    }
+
+    termAtt.setLength(length);
+    assert start != -1;
+    offsetAtt.setOffset(correctOffset(start), finalOffset = correctOffset(end));
+    typeAtt.setType(script == TIBETAN ? TIBETAN_TYPE : WYLIE_TYPE);
+    return true;
+  }
+
+  @Override
+  public final void end() {
+    // set final offset
+    offsetAtt.setOffset(finalOffset, finalOffset);
+  }
+
+  @Override
+  public void reset() throws IOException {
+    bufferIndex = 0;
+    offset = 0;
+    dataLen = 0;
+    finalOffset = 0;
+    ioBuffer.reset(); // make sure to reset the IO buffer!!
+  }
+}
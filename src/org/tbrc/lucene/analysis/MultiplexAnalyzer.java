@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.sinks.TeeSinkTokenFilter;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.util.Version;
+
+/**
+ * Tokenizes a document once and fans the token stream out to several named filter branches, one per field, so that the stemmed, unstemmed and
+ * stop-filtered variants of the same text no longer each pay for {@link TibWhitespaceTokenizer} or {@link WylieTokenizer}.
+ * <p>
+ * The source is a {@link TeeSinkTokenFilter}; every branch reads a sink of it, which holds the captured attribute states of the tokens rather than a
+ * copy of the text. The first branch to be reset drives the tee through the whole document, so the fields may be consumed in any order, as
+ * {@link org.apache.lucene.index.IndexWriter} does when it sorts the fields of a document by name.
+ * <p>
+ * Typical use:
+ *
+ * <pre>
+ * MultiplexAnalyzer multiplex = new MultiplexAnalyzer(Version.LUCENE_44, MultiplexAnalyzer.Source.TIBETAN)
+ * 		.addBranch(&quot;text_stemmed&quot;, MultiplexAnalyzer.TIBETAN_STEMMED)
+ * 		.addBranch(&quot;text_exact&quot;, MultiplexAnalyzer.TIBETAN_UNSTEMMED)
+ * 		.addBranch(&quot;text&quot;, MultiplexAnalyzer.TIBETAN_STOPPED);
+ * multiplex.addFields(doc, reader);
+ * </pre>
+ *
+ * A MultiplexAnalyzer is immutable once its branches are added and may be shared between threads; the streams it returns belong to one document.
+ */
+public final class MultiplexAnalyzer {
+
+	/** The tokenizer that feeds every branch */
+	public enum Source {
+		/** {@link TibWhitespaceTokenizer} */
+		TIBETAN,
+		/** {@link WylieTokenizer} */
+		WYLIE,
+		/** {@link MixedScriptTokenizer} */
+		MIXED
+	}
+
+	/** Builds the filters of one branch on top of its share of the tokenized document. */
+	public interface Branch {
+		TokenStream create(TokenStream in);
+	}
+
+	/** The tokens as they come from the tokenizer */
+	public static final Branch TIBETAN_UNSTEMMED = new Branch() {
+		public TokenStream create(TokenStream in) {
+			return in;
+		}
+	};
+
+	/** {@link TibEndingFilter} and {@link TibNumeralFilter}, the chain of {@link TibetanAnalyzer} without its stop filter */
+	public static final Branch TIBETAN_STEMMED = new Branch() {
+		public TokenStream create(TokenStream in) {
+			return VariantMaps.tibetanFilters(in);
+		}
+	};
+
+	/** The chain of {@link TibetanAnalyzer} without variants */
+	public static final Branch TIBETAN_STOPPED = new Branch() {
+		public TokenStream create(TokenStream in) {
+			return VariantMaps.stop(VariantMaps.tibetanFilters(in), TibetanAnalyzer.TIBETAN_STOP_WORDS_SET);
+		}
+	};
+
+	/** {@link PlusFilter} only */
+	public static final Branch WYLIE_UNSTEMMED = new Branch() {
+		public TokenStream create(TokenStream in) {
+			return new PlusFilter(in);
+		}
+	};
+
+	/** {@link PlusFilter} and {@link EndingFilter}, the chain of {@link WylieAnalyzer} without its stop filter */
+	public static final Branch WYLIE_STEMMED = new Branch() {
+		public TokenStream create(TokenStream in) {
+			return VariantMaps.wylieFilters(in);
+		}
+	};
+
+	/** The chain of {@link WylieAnalyzer} without variants */
+	public static final Branch WYLIE_STOPPED = new Branch() {
+		public TokenStream create(TokenStream in) {
+			return VariantMaps.stop(VariantMaps.wylieFilters(in), WylieAnalyzer.WYLIE_STOP_WORDS_SET);
+		}
+	};
+
+	private final Version matchVersion;
+	private final Source source;
+	private final Map<String, Branch> branches = new LinkedHashMap<String, Branch>();
+
+	/**
+	 * Creates a new {@link MultiplexAnalyzer} without branches
+	 *
+	 * @param matchVersion
+	 *            Lucene version to match
+	 * @param source
+	 *            the tokenizer that feeds every branch
+	 */
+	public MultiplexAnalyzer(Version matchVersion, Source source) {
+		this.matchVersion = matchVersion;
+		this.source = source;
+	}
+
+	/**
+	 * Adds a branch feeding the field <tt>fieldName</tt>.
+	 *
+	 * @return this
+	 */
+	public MultiplexAnalyzer addBranch(String fieldName, Branch branch) {
+		if (branches.containsKey(fieldName)) {
+			throw new IllegalArgumentException("field " + fieldName + " already has a branch");
+		}
+		branches.put(fieldName, branch);
+		return this;
+	}
+
+	/**
+	 * Returns one token stream per branch, in the order the branches were added, all fed by a single tokenization of <tt>reader</tt>.
+	 */
+	public Map<String, TokenStream> tokenStreams(Reader reader) {
+		if (branches.isEmpty()) {
+			throw new IllegalStateException("no branches");
+		}
+		final TeeSinkTokenFilter tee = new TeeSinkTokenFilter(createTokenizer(reader));
+		// the tokenizers only add term and offset; the branches need the rest captured too
+		tee.addAttribute(PositionIncrementAttribute.class);
+		tee.addAttribute(TypeAttribute.class);
+
+		final Tee shared = new Tee(tee);
+		final Map<String, TokenStream> streams = new LinkedHashMap<String, TokenStream>();
+		for (Map.Entry<String, Branch> entry : branches.entrySet()) {
+			streams.put(entry.getKey(), entry.getValue().create(new SinkDriver(tee.newSinkTokenStream(), shared)));
+		}
+		return streams;
+	}
+
+	/**
+	 * Adds an unstored {@link TextField} per branch to <tt>doc</tt>, all fed by a single tokenization of <tt>reader</tt>.
+	 */
+	public void addFields(Document doc, Reader reader) {
+		for (Map.Entry<String, TokenStream> entry : tokenStreams(reader).entrySet()) {
+			doc.add(new TextField(entry.getKey(), entry.getValue()));
+		}
+	}
+
+	private Tokenizer createTokenizer(Reader reader) {
+		switch (source) {
+		case WYLIE:
+			return new WylieTokenizer(matchVersion, TibAttributeFactory.INSTANCE, reader);
+		case MIXED:
+			return new MixedScriptTokenizer(matchVersion, TibAttributeFactory.INSTANCE, reader);
+		default:
+			return new TibWhitespaceTokenizer(matchVersion, TibAttributeFactory.INSTANCE, reader);
+		}
+	}
+
+	/** Runs the tee through the document the first time any of its sinks is reset. */
+	private static final class Tee {
+		private final TeeSinkTokenFilter tee;
+		private boolean consumed = false;
+
+		Tee(TeeSinkTokenFilter tee) {
+			this.tee = tee;
+		}
+
+		void consume() throws IOException {
+			if (consumed) {
+				return;
+			}
+			consumed = true;
+			try {
+				tee.reset();
+				tee.consumeAllTokens();
+				tee.end();
+			} finally {
+				tee.close();
+			}
+		}
+	}
+
+	/** Wraps a sink so that resetting it drives the shared tee first. */
+	private static final class SinkDriver extends TokenFilter {
+		private final Tee tee;
+
+		SinkDriver(TokenStream sink, Tee tee) {
+			super(sink);
+			this.tee = tee;
+		}
+
+		@Override
+		public boolean incrementToken() throws IOException {
+			return input.incrementToken();
+		}
+
+		@Override
+		public void reset() throws IOException {
+			tee.consume();
+			super.reset();
+		}
+	}
+}
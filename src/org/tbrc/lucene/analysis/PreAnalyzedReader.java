@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.InputStreamDataInput;
+
+/**
+ * Reads the records written by {@link PreAnalyzedWriter} back as {@link PreAnalyzedTokenStream}s, in the order they were written.
+ */
+public final class PreAnalyzedReader implements Closeable {
+
+	private final DataInput in;
+	private final Closeable closeable;
+	private boolean eof = false;
+
+	/**
+	 * Creates a reader on <tt>in</tt> and checks the file header.
+	 */
+	public PreAnalyzedReader(DataInput in) throws IOException {
+		this(in, null);
+	}
+
+	private PreAnalyzedReader(DataInput in, Closeable closeable) throws IOException {
+		this.in = in;
+		this.closeable = closeable;
+		CodecUtil.checkHeader(in, PreAnalyzedWriter.CODEC_NAME, PreAnalyzedWriter.VERSION_START, PreAnalyzedWriter.VERSION_CURRENT);
+	}
+
+	/**
+	 * Opens a reader on a file, read through an NIO channel.
+	 */
+	public static PreAnalyzedReader open(File file) throws IOException {
+		final FileInputStream stream = new FileInputStream(file);
+		boolean success = false;
+		try {
+			final InputStreamDataInput in = new InputStreamDataInput(new BufferedInputStream(Channels.newInputStream(stream.getChannel()), 1 << 16));
+			final PreAnalyzedReader reader = new PreAnalyzedReader(in, in);
+			success = true;
+			return reader;
+		} finally {
+			if (!success) {
+				stream.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the next recorded token stream, or null after the last one.
+	 */
+	public PreAnalyzedTokenStream next() throws IOException {
+		if (eof) {
+			return null;
+		}
+		final int length = in.readVInt();
+		if (length == 0) {
+			eof = true;
+			return null;
+		}
+		final byte[] record = new byte[length];
+		in.readBytes(record, 0, length);
+		return new PreAnalyzedTokenStream(record);
+	}
+
+	/**
+	 * Closes the underlying file, if this reader opened it.
+	 */
+	public void close() throws IOException {
+		if (closeable != null) {
+			closeable.close();
+		}
+	}
+}
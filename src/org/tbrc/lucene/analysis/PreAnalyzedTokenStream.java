@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.UnicodeUtil;
+
+/**
+ * Replays one token stream recorded by {@link PreAnalyzedWriter}: terms, position increments and lengths, offsets and types come back exactly as the
+ * analyzer produced them, without running it. Obtain instances from {@link PreAnalyzedReader#next()}.
+ */
+public final class PreAnalyzedTokenStream extends TokenStream {
+
+	private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+	private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+	private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+	private final PositionLengthAttribute posLenAtt = addAttribute(PositionLengthAttribute.class);
+	private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+	private final byte[] record;
+	private final ByteArrayDataInput in = new ByteArrayDataInput();
+	private final List<String> types = new ArrayList<String>();
+	private final CharsRef chars = new CharsRef(16);
+
+	private int lastStart;
+	private int finalOffset;
+	private boolean exhausted;
+
+	PreAnalyzedTokenStream(byte[] record) {
+		this.record = record;
+		in.reset(record);
+	}
+
+	@Override
+	public boolean incrementToken() throws IOException {
+		if (exhausted) {
+			return false;
+		}
+		clearAttributes();
+
+		final int header = in.readVInt();
+		if (header == 0) {
+			finalOffset = in.readVInt();
+			exhausted = true;
+			return false;
+		}
+		posIncAtt.setPositionIncrement((header - 1) >>> 1);
+		posLenAtt.setPositionLength(((header - 1) & 1) != 0 ? in.readVInt() : 1);
+
+		final int start = lastStart + in.readVInt();
+		offsetAtt.setOffset(start, start + in.readVInt());
+		lastStart = start;
+
+		final int number = in.readVInt();
+		if (number == types.size()) {
+			types.add(in.readString());
+		}
+		typeAtt.setType(types.get(number));
+
+		final int length = in.readVInt();
+		UnicodeUtil.UTF8toUTF16(record, in.getPosition(), length, chars);
+		in.skipBytes(length);
+		termAtt.copyBuffer(chars.chars, chars.offset, chars.length);
+		return true;
+	}
+
+	@Override
+	public void end() {
+		offsetAtt.setOffset(finalOffset, finalOffset);
+	}
+
+	/**
+	 * Rewinds to the first token, so the same record can be consumed again.
+	 */
+	@Override
+	public void reset() {
+		in.reset(record);
+		types.clear();
+		types.add(PreAnalyzedWriter.DEFAULT_TYPE);
+		lastStart = 0;
+		finalOffset = 0;
+		exhausted = false;
+	}
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.UnicodeUtil;
+
+/**
+ * Writes analyzed token streams in a compact binary form so that a reindex can replay them with {@link PreAnalyzedReader} instead of running
+ * {@link TibetanAnalyzer} or {@link WylieAnalyzer} again on unchanged text.
+ * <p>
+ * A file starts with a {@link CodecUtil} header and holds one record per token stream, each a vint byte length followed by the record, and ends with
+ * a zero length. A record is a sequence of tokens:
+ * <ul>
+ * <li>vint <tt>(positionIncrement &lt;&lt; 1 | hasPositionLength) + 1</tt>, 0 ending the record</li>
+ * <li>vint position length, only if flagged</li>
+ * <li>vint start offset minus the previous start offset</li>
+ * <li>vint end offset minus start offset</li>
+ * <li>vint type number, followed by the type as a string the first time a number is used in the record; <tt>word</tt> is always 0</li>
+ * <li>vint term length in UTF-8 bytes, then the bytes</li>
+ * </ul>
+ * After the terminating 0 comes the vint final offset of the stream. Records are length prefixed so a reader can hand them out in any order, as
+ * {@link org.apache.lucene.index.IndexWriter} consumes the fields of a document by name.
+ */
+public final class PreAnalyzedWriter implements Closeable {
+
+	static final String CODEC_NAME = "TibPreAnalyzed";
+	static final int VERSION_START = 0;
+	static final int VERSION_CURRENT = VERSION_START;
+
+	static final String DEFAULT_TYPE = "word";
+
+	private final DataOutput out;
+	private final Closeable closeable;
+	private final RecordOutput record = new RecordOutput();
+	private final TokenEncoder encoder = new TokenEncoder();
+
+	/**
+	 * Creates a writer on <tt>out</tt> and writes the file header.
+	 */
+	public PreAnalyzedWriter(DataOutput out) throws IOException {
+		this(out, null);
+	}
+
+	private PreAnalyzedWriter(DataOutput out, Closeable closeable) throws IOException {
+		this.out = out;
+		this.closeable = closeable;
+		CodecUtil.writeHeader(out, CODEC_NAME, VERSION_CURRENT);
+	}
+
+	/**
+	 * Opens a writer on a new file, written through an NIO channel.
+	 */
+	public static PreAnalyzedWriter open(File file) throws IOException {
+		final FileOutputStream stream = new FileOutputStream(file);
+		boolean success = false;
+		try {
+			final OutputStreamDataOutput out = new OutputStreamDataOutput(new BufferedOutputStream(Channels.newOutputStream(stream.getChannel()), 1 << 16));
+			final PreAnalyzedWriter writer = new PreAnalyzedWriter(out, out);
+			success = true;
+			return writer;
+		} finally {
+			if (!success) {
+				stream.close();
+			}
+		}
+	}
+
+	/**
+	 * Consumes <tt>stream</tt>, which must not have been reset yet, and writes it as one record. The stream is closed.
+	 */
+	public void write(TokenStream stream) throws IOException {
+		encoder.start(stream);
+		record.reset();
+		try {
+			stream.reset();
+			while (stream.incrementToken()) {
+				encoder.writeToken(record);
+			}
+			stream.end();
+			encoder.writeEnd(record);
+		} finally {
+			stream.close();
+		}
+
+		out.writeVInt(record.length);
+		out.writeBytes(record.bytes, 0, record.length);
+	}
+
+	/**
+	 * Writes the end of file marker and closes the underlying file, if this writer opened it.
+	 */
+	public void close() throws IOException {
+		out.writeVInt(0);
+		if (closeable != null) {
+			closeable.close();
+		}
+	}
+
+	/**
+	 * Encodes the tokens of one stream in the record format, also used by {@link AnalysisServer} to stream tokens.
+	 */
+	static final class TokenEncoder {
+		private final BytesRef utf8 = new BytesRef(16);
+		private final Map<String, Integer> types = new HashMap<String, Integer>();
+		private CharTermAttribute termAtt;
+		private OffsetAttribute offsetAtt;
+		private PositionIncrementAttribute posIncAtt;
+		private PositionLengthAttribute posLenAtt;
+		private TypeAttribute typeAtt;
+		private int lastStart;
+
+		/** Starts a record for <tt>stream</tt>, which has not been reset yet */
+		void start(TokenStream stream) {
+			termAtt = stream.addAttribute(CharTermAttribute.class);
+			offsetAtt = stream.addAttribute(OffsetAttribute.class);
+			posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+			posLenAtt = stream.addAttribute(PositionLengthAttribute.class);
+			typeAtt = stream.addAttribute(TypeAttribute.class);
+			types.clear();
+			types.put(DEFAULT_TYPE, 0);
+			lastStart = 0;
+		}
+
+		/** Writes the current token of the stream */
+		void writeToken(DataOutput out) throws IOException {
+			final int posLen = posLenAtt.getPositionLength();
+			out.writeVInt((posIncAtt.getPositionIncrement() << 1 | (posLen != 1 ? 1 : 0)) + 1);
+			if (posLen != 1) {
+				out.writeVInt(posLen);
+			}
+
+			final int start = offsetAtt.startOffset();
+			if (start < lastStart) {
+				throw new IllegalArgumentException("offsets must not go backwards: " + start + " after " + lastStart);
+			}
+			out.writeVInt(start - lastStart);
+			out.writeVInt(offsetAtt.endOffset() - start);
+			lastStart = start;
+
+			final String type = typeAtt.type();
+			final Integer number = types.get(type);
+			if (number != null) {
+				out.writeVInt(number);
+			} else {
+				out.writeVInt(types.size());
+				out.writeString(type);
+				types.put(type, types.size());
+			}
+
+			UnicodeUtil.UTF16toUTF8(termAtt.buffer(), 0, termAtt.length(), utf8);
+			out.writeVInt(utf8.length);
+			out.writeBytes(utf8.bytes, utf8.offset, utf8.length);
+		}
+
+		/** Ends the record, after {@link TokenStream#end()} */
+		void writeEnd(DataOutput out) throws IOException {
+			out.writeVInt(0);
+			out.writeVInt(offsetAtt.endOffset());
+		}
+	}
+
+	/** A growable in memory record, reused for every stream. */
+	static final class RecordOutput extends DataOutput {
+		byte[] bytes = new byte[1024];
+		int length;
+
+		void reset() {
+			length = 0;
+		}
+
+		@Override
+		public void writeByte(byte b) {
+			if (length == bytes.length) {
+				bytes = ArrayUtil.grow(bytes);
+			}
+			bytes[length++] = b;
+		}
+
+		@Override
+		public void writeBytes(byte[] b, int offset, int len) {
+			bytes = ArrayUtil.grow(bytes, length + len);
+			System.arraycopy(b, offset, bytes, length, len);
+			length += len;
+		}
+	}
+}
@@ -0,0 +1,317 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.analysis.util.WordlistLoader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.PriorityQueue;
+
+/**
+ * Derives stop and particle lists from the term dictionary of an existing index, instead of picking them by hand.
+ * <p>
+ * One streaming pass over the terms of a field keeps the most frequent terms by document frequency, then by total term frequency, in a bounded
+ * {@link PriorityQueue}, and sums the statistics of all terms. The cost of a term in a query is taken to be the size of its postings, one entry per
+ * document plus one per position. Terms found in at least a given share of the documents are stop words; those of them that also occur several times
+ * per document on average are the grammatical particles.
+ * <p>
+ * The lists are written one term per line with <tt>#</tt> comments, the format of {@link WordlistLoader#getWordSet(java.io.Reader, String,
+ * org.apache.lucene.util.Version)}, and can be passed to the <tt>CharArraySet</tt> constructors of {@link TibetanAnalyzer}, {@link WylieAnalyzer},
+ * {@link ChunkAnalyzer} and {@link MixedScriptAnalyzer}. The terms are those of the index, so they are already in analyzed form; words that the
+ * index was built with as stop words are not in it and can not show up again.
+ * <p>
+ * The report lists the ranked terms with their share of all postings, and estimates the savings of the stop list for the index and for queries,
+ * assuming that terms occur in queries as often as in the corpus.
+ *
+ * <pre>
+ * java org.tbrc.lucene.analysis.StopListBuilder -index dir -field name [-top N] [-minDocRatio R] [-particleFreq F]
+ *      [-stop stop.txt] [-particles particles.txt] [-report report.txt]
+ * </pre>
+ */
+public final class StopListBuilder {
+
+	/** The statistics of one term */
+	public static final class TermStats {
+		public final String term;
+		public final int docFreq;
+		public final long totalTermFreq;
+
+		TermStats(String term, int docFreq, long totalTermFreq) {
+			this.term = term;
+			this.docFreq = docFreq;
+			this.totalTermFreq = totalTermFreq;
+		}
+
+		/** The number of postings entries of the term, documents and positions */
+		public long cost() {
+			return docFreq + Math.max(0, totalTermFreq);
+		}
+	}
+
+	private final String field;
+	private final int docCount;
+	private final long termCount;
+	private final long sumCost;
+	private final double sumQueryCost;
+	private final List<TermStats> ranked;
+
+	private StopListBuilder(String field, int docCount, long termCount, long sumCost, double sumQueryCost, List<TermStats> ranked) {
+		this.field = field;
+		this.docCount = docCount;
+		this.termCount = termCount;
+		this.sumCost = sumCost;
+		this.sumQueryCost = sumQueryCost;
+		this.ranked = ranked;
+	}
+
+	/** Holds the scanned term while it is compared with the queue, and a copy once it is in it */
+	private static final class Entry {
+		final BytesRef term = new BytesRef();
+		int docFreq;
+		long totalTermFreq;
+	}
+
+	private static final class TermQueue extends PriorityQueue<Entry> {
+		TermQueue(int maxSize) {
+			super(maxSize);
+		}
+
+		@Override
+		protected boolean lessThan(Entry a, Entry b) {
+			return a.docFreq < b.docFreq || (a.docFreq == b.docFreq && a.totalTermFreq < b.totalTermFreq);
+		}
+	}
+
+	/**
+	 * Scans the terms of <tt>field</tt> and keeps the <tt>top</tt> most frequent ones; <tt>top</tt> must be at least 1.
+	 */
+	public static StopListBuilder scan(IndexReader reader, String field, int top) throws IOException {
+		if (top < 1) {
+			throw new IllegalArgumentException("top must be at least 1: " + top);
+		}
+		final Terms terms = MultiFields.getTerms(reader, field);
+		if (terms == null) {
+			throw new IllegalArgumentException("field " + field + " has no terms");
+		}
+		final int docCount = terms.getDocCount() < 0 ? reader.maxDoc() : terms.getDocCount();
+
+		final TermQueue queue = new TermQueue(top);
+		long termCount = 0;
+		long sumCost = 0;
+		double sumQueryCost = 0;
+		Entry spare = new Entry();
+		final TermsEnum termsEnum = terms.iterator(null);
+		BytesRef term;
+		while ((term = termsEnum.next()) != null) {
+			final int docFreq = termsEnum.docFreq();
+			final long totalTermFreq = termsEnum.totalTermFreq();
+			final long cost = docFreq + Math.max(0, totalTermFreq);
+			termCount++;
+			sumCost += cost;
+			sumQueryCost += (double) (totalTermFreq < 0 ? docFreq : totalTermFreq) * cost;
+
+			spare.docFreq = docFreq;
+			spare.totalTermFreq = totalTermFreq;
+			if (queue.size() < top || queue.lessThan(queue.top(), spare)) {
+				spare.term.copyBytes(term);
+				spare = queue.insertWithOverflow(spare);
+				if (spare == null) {
+					spare = new Entry();
+				}
+			}
+		}
+
+		final List<TermStats> ranked = new ArrayList<TermStats>(queue.size());
+		while (queue.size() > 0) {
+			final Entry entry = queue.pop();
+			ranked.add(new TermStats(entry.term.utf8ToString(), entry.docFreq, entry.totalTermFreq));
+		}
+		Collections.reverse(ranked);
+		return new StopListBuilder(field, docCount, termCount, sumCost, sumQueryCost, ranked);
+	}
+
+	/** Returns the kept terms, most frequent first */
+	public List<TermStats> ranked() {
+		return Collections.unmodifiableList(ranked);
+	}
+
+	/**
+	 * Returns the kept terms found in at least <tt>minDocRatio</tt> of the documents with the field.
+	 */
+	public List<TermStats> stopWords(double minDocRatio) {
+		final List<TermStats> stopWords = new ArrayList<TermStats>();
+		for (TermStats stats : ranked) {
+			if (stats.docFreq >= minDocRatio * docCount) {
+				stopWords.add(stats);
+			}
+		}
+		return stopWords;
+	}
+
+	/**
+	 * Returns the stop words that also occur at least <tt>minFreqPerDoc</tt> times in each document they are in, on average. A field indexed without
+	 * frequencies has no particles.
+	 */
+	public List<TermStats> particles(double minDocRatio, double minFreqPerDoc) {
+		final List<TermStats> particles = new ArrayList<TermStats>();
+		for (TermStats stats : stopWords(minDocRatio)) {
+			if (stats.totalTermFreq >= minFreqPerDoc * stats.docFreq) {
+				particles.add(stats);
+			}
+		}
+		return particles;
+	}
+
+	/**
+	 * Writes a term list in the {@link WordlistLoader} format, with <tt>comment</tt> as a header.
+	 */
+	public void writeList(List<TermStats> list, String comment, Writer writer) throws IOException {
+		final PrintWriter out = new PrintWriter(writer);
+		out.println("# " + comment);
+		out.println("# field=" + field + " docs=" + docCount + " terms=" + termCount);
+		for (TermStats stats : list) {
+			out.println(stats.term);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the ranked terms and the estimated savings of <tt>stopWords</tt>, tab separated.
+	 */
+	public void writeReport(List<TermStats> stopWords, Writer writer) throws IOException {
+		final PrintWriter out = new PrintWriter(writer);
+		long stopCost = 0;
+		double stopQueryCost = 0;
+		for (TermStats stats : stopWords) {
+			stopCost += stats.cost();
+			stopQueryCost += (double) (stats.totalTermFreq < 0 ? stats.docFreq : stats.totalTermFreq) * stats.cost();
+		}
+		out.println("# field=" + field + " docs=" + docCount + " terms=" + termCount + " postings=" + sumCost);
+		out.println(String.format("# stop words=%d postings=%d (%.2f%% of the index) query postings saved=%.2f%%", stopWords.size(), stopCost,
+				percent(stopCost, sumCost), percent(stopQueryCost, sumQueryCost)));
+		out.println("rank\tterm\tdocFreq\tdoc_pct\ttotalTermFreq\tfreq_per_doc\tpostings_pct\tcumulative_pct");
+		long cumulative = 0;
+		for (int i = 0; i < ranked.size(); i++) {
+			final TermStats stats = ranked.get(i);
+			cumulative += stats.cost();
+			out.println(String.format("%d\t%s\t%d\t%.2f\t%d\t%.2f\t%.3f\t%.3f", i + 1, stats.term, stats.docFreq, percent(stats.docFreq, docCount),
+					stats.totalTermFreq, stats.totalTermFreq < 0 ? Double.NaN : stats.totalTermFreq / (double) stats.docFreq,
+					percent(stats.cost(), sumCost), percent(cumulative, sumCost)));
+		}
+		out.flush();
+	}
+
+	private static double percent(double part, double whole) {
+		return whole == 0 ? 0 : 100 * part / whole;
+	}
+
+	public static void main(String[] args) throws IOException {
+		String index = null;
+		String field = null;
+		int top = 100;
+		double minDocRatio = 0.3;
+		double particleFreq = 2.0;
+		String stopFile = null;
+		String particleFile = null;
+		String reportFile = null;
+
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if ("-index".equals(arg)) {
+				index = args[++i];
+			} else if ("-field".equals(arg)) {
+				field = args[++i];
+			} else if ("-top".equals(arg)) {
+				top = Integer.parseInt(args[++i]);
+			} else if ("-minDocRatio".equals(arg)) {
+				minDocRatio = Double.parseDouble(args[++i]);
+			} else if ("-particleFreq".equals(arg)) {
+				particleFreq = Double.parseDouble(args[++i]);
+			} else if ("-stop".equals(arg)) {
+				stopFile = args[++i];
+			} else if ("-particles".equals(arg)) {
+				particleFile = args[++i];
+			} else if ("-report".equals(arg)) {
+				reportFile = args[++i];
+			} else {
+				index = null;
+				break;
+			}
+		}
+		if (index == null || field == null) {
+			System.err.println("usage: StopListBuilder -index dir -field name [-top N] [-minDocRatio R] [-particleFreq F] [-stop stop.txt] "
+					+ "[-particles particles.txt] [-report report.txt]");
+			System.exit(1);
+		}
+
+		final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(index)));
+		final StopListBuilder builder;
+		try {
+			builder = scan(reader, field, top);
+		} finally {
+			reader.close();
+		}
+
+		final List<TermStats> stopWords = builder.stopWords(minDocRatio);
+		if (stopFile != null) {
+			final Writer writer = new OutputStreamWriter(new FileOutputStream(stopFile), "UTF-8");
+			try {
+				builder.writeList(stopWords, "stop words in at least " + minDocRatio + " of the documents", writer);
+			} finally {
+				writer.close();
+			}
+		}
+		if (particleFile != null) {
+			final Writer writer = new OutputStreamWriter(new FileOutputStream(particleFile), "UTF-8");
+			try {
+				builder.writeList(builder.particles(minDocRatio, particleFreq), "particles in at least " + minDocRatio + " of the documents, "
+						+ particleFreq + " times per document", writer);
+			} finally {
+				writer.close();
+			}
+		}
+		final Writer writer = reportFile != null ? new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8") : new OutputStreamWriter(
+				System.out, "UTF-8");
+		try {
+			builder.writeReport(stopWords, writer);
+		} finally {
+			if (reportFile != null) {
+				writer.close();
+			} else {
+				writer.flush();
+			}
+		}
+	}
+}
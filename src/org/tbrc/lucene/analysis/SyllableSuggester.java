@@ -0,0 +1,513 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Suggests corrections for misspelt syllables, such as OCR errors and Wylie typos, from the syllables indexed by {@link TibWhitespaceTokenizer} or
+ * {@link WylieTokenizer}.
+ * <p>
+ * The suggester uses symmetric deletion: every indexed syllable is stored under each string obtained by deleting up to <tt>maxEdits</tt> of the
+ * characters of its folded form, and a query looks up the deletions of the folded query syllable. The folded form writes subjoined letters as full
+ * letters, e as i, o as u and the reversed gi-gu as i, and leaves out a-chung and the Wylie apostrophe, so that every edit costing less than one
+ * disappears. A syllable within a weighted distance of <tt>maxEdits</tt> is then at most <tt>maxEdits</tt> whole edits away once folded, and shares a
+ * deletion with the query. A lookup touches a handful of hash slots instead of scanning the term dictionary as a fuzzy query does. Deletions are
+ * stored as 64 bit hashes in open addressing arrays, never as strings; collisions and folding only add candidates, which are then verified against
+ * the weighted distance.
+ * <p>
+ * Candidates are ranked by a weighted edit distance with Tibetan aware costs: a subjoined letter for the same full letter (U+0F90 block for U+0F40
+ * block) costs {@link #SUBJOINED_COST}, a confusion of the vowels i/e or u/o, or of the reversed gi-gu, costs {@link #VOWEL_COST}, and so does dropping
+ * or adding an a-chung or Wylie apostrophe. Any other edit costs one. Ties are broken by document frequency.
+ * <p>
+ * The tables live on the heap and are costly to build: a syllable of n characters is stored under about n deletions for <tt>maxEdits</tt> 1 and
+ * n(n+1)/2 for <tt>maxEdits</tt> 2, each taking a posting of 8 bytes, and each distinct deletion a hash slot of 12 bytes in a table kept at most half
+ * full. The build hashes every one of those deletions, so it takes time in proportion to their number too. Rather than build the suggester on every
+ * start, {@link #write(DataOutput)} it once, for instance to an <tt>IndexOutput</tt> next to the index, and {@link #read(DataInput)} it back.
+ * <p>
+ * A suggester is immutable once built and may be shared between threads.
+ */
+public final class SyllableSuggester {
+
+	/** Cost of writing a subjoined letter for the full letter, or the reverse */
+	public static final float SUBJOINED_COST = 0.25f;
+
+	/** Cost of the vowel confusions i/e and u/o and of a dropped or added a-chung */
+	public static final float VOWEL_COST = 0.5f;
+
+	/** Syllables longer than this are not indexed; no Tibetan syllable comes near it */
+	private static final int MAX_SYLLABLE_LENGTH = 24;
+
+	static final String CODEC_NAME = "TibSyllableSuggester";
+	static final int VERSION_START = 0;
+	static final int VERSION_CURRENT = VERSION_START;
+
+	private final int maxEdits;
+	private final String[] syllables;
+	private final int[] freqs;
+
+	// deletion hash -> head of a list of syllable ids
+	private long[] keys;
+	private int[] heads;
+	private int size;
+
+	// the lists of syllable ids
+	private int[] postingSyllable = new int[1024];
+	private int[] postingNext = new int[1024];
+	private int postings;
+
+	/** A suggested correction */
+	public static final class Suggestion {
+		public final String syllable;
+		public final float distance;
+		public final int docFreq;
+
+		Suggestion(String syllable, float distance, int docFreq) {
+			this.syllable = syllable;
+			this.distance = distance;
+			this.docFreq = docFreq;
+		}
+
+		@Override
+		public String toString() {
+			return syllable + "/" + distance + "/" + docFreq;
+		}
+	}
+
+	private static final Comparator<Suggestion> RANKING = new Comparator<Suggestion>() {
+		public int compare(Suggestion a, Suggestion b) {
+			if (a.distance != b.distance) {
+				return a.distance < b.distance ? -1 : 1;
+			}
+			if (a.docFreq != b.docFreq) {
+				return a.docFreq > b.docFreq ? -1 : 1;
+			}
+			return a.syllable.compareTo(b.syllable);
+		}
+	};
+
+	/**
+	 * Builds a suggester over the syllables of <tt>field</tt>.
+	 *
+	 * @param maxEdits
+	 *            the number of deletions indexed per syllable, usually 1 or 2
+	 * @param minDocFreq
+	 *            syllables in fewer documents are left out, as they are likely misspellings themselves
+	 */
+	public static SyllableSuggester build(IndexReader reader, String field, int maxEdits, int minDocFreq) throws IOException {
+		final List<String> syllables = new ArrayList<String>();
+		int[] freqs = new int[1024];
+		final Terms terms = MultiFields.getTerms(reader, field);
+		if (terms != null) {
+			final TermsEnum termsEnum = terms.iterator(null);
+			BytesRef term;
+			while ((term = termsEnum.next()) != null) {
+				final int docFreq = termsEnum.docFreq();
+				if (docFreq < minDocFreq) {
+					continue;
+				}
+				freqs = ArrayUtil.grow(freqs, syllables.size() + 1);
+				freqs[syllables.size()] = docFreq;
+				syllables.add(term.utf8ToString());
+			}
+		}
+		return new SyllableSuggester(syllables.toArray(new String[syllables.size()]), freqs, maxEdits);
+	}
+
+	/**
+	 * Builds a suggester over the given syllables.
+	 *
+	 * @param freqs
+	 *            the document frequency of each syllable
+	 * @param maxEdits
+	 *            the number of deletions indexed per syllable, usually 1 or 2
+	 */
+	public SyllableSuggester(String[] syllables, int[] freqs, int maxEdits) {
+		if (maxEdits < 1) {
+			throw new IllegalArgumentException("maxEdits must be at least 1");
+		}
+		this.maxEdits = maxEdits;
+		this.syllables = syllables;
+		this.freqs = freqs;
+		this.keys = new long[Math.max(16, Integer.highestOneBit(Math.max(1, syllables.length)) * 4)];
+		this.heads = new int[keys.length];
+
+		final char[][] scratch = new char[maxEdits + 1][MAX_SYLLABLE_LENGTH];
+		final LongSet seen = new LongSet();
+		for (int id = 0; id < syllables.length; id++) {
+			final String syllable = syllables[id];
+			if (syllable.length() > MAX_SYLLABLE_LENGTH) {
+				continue;
+			}
+			seen.clear();
+			addDeletions(id, scratch, fold(syllable, scratch[maxEdits]), 0, maxEdits, seen);
+		}
+	}
+
+	private SyllableSuggester(int maxEdits, String[] syllables, int[] freqs, long[] keys, int[] heads, int size, int[] postingSyllable,
+			int[] postingNext, int postings) {
+		this.maxEdits = maxEdits;
+		this.syllables = syllables;
+		this.freqs = freqs;
+		this.keys = keys;
+		this.heads = heads;
+		this.size = size;
+		this.postingSyllable = postingSyllable;
+		this.postingNext = postingNext;
+		this.postings = postings;
+	}
+
+	/** Adds the deletions of <tt>scratch[edits]</tt>, writing the shorter strings to the lower rows of <tt>scratch</tt> */
+	private void addDeletions(int id, char[][] scratch, int len, int from, int edits, LongSet seen) {
+		final char[] chars = scratch[edits];
+		final long hash = hash(chars, len);
+		if (seen.add(hash)) {
+			put(hash, id);
+		}
+		if (edits == 0 || len == 0) {
+			return;
+		}
+		final char[] shorter = scratch[edits - 1];
+		for (int i = from; i < len; i++) {
+			System.arraycopy(chars, 0, shorter, 0, i);
+			System.arraycopy(chars, i + 1, shorter, i, len - i - 1);
+			addDeletions(id, scratch, len - 1, i, edits - 1, seen);
+		}
+	}
+
+	/**
+	 * Writes this suggester to <tt>out</tt>, starting with a {@link CodecUtil} header.
+	 */
+	public void write(DataOutput out) throws IOException {
+		CodecUtil.writeHeader(out, CODEC_NAME, VERSION_CURRENT);
+		out.writeVInt(maxEdits);
+		out.writeVInt(syllables.length);
+		for (int id = 0; id < syllables.length; id++) {
+			out.writeString(syllables[id]);
+			out.writeVInt(freqs[id]);
+		}
+		out.writeVInt(keys.length);
+		out.writeVInt(size);
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != 0) {
+				out.writeVInt(slot);
+				out.writeLong(keys[slot]);
+				out.writeVInt(heads[slot]);
+			}
+		}
+		out.writeVInt(postings);
+		for (int p = 0; p < postings; p++) {
+			out.writeVInt(postingSyllable[p]);
+			out.writeVInt(postingNext[p] + 1);
+		}
+	}
+
+	/**
+	 * Reads a suggester written by {@link #write(DataOutput)}, without building anything.
+	 */
+	public static SyllableSuggester read(DataInput in) throws IOException {
+		CodecUtil.checkHeader(in, CODEC_NAME, VERSION_START, VERSION_CURRENT);
+		final int maxEdits = in.readVInt();
+		final String[] syllables = new String[in.readVInt()];
+		final int[] freqs = new int[syllables.length];
+		for (int id = 0; id < syllables.length; id++) {
+			syllables[id] = in.readString();
+			freqs[id] = in.readVInt();
+		}
+		final long[] keys = new long[in.readVInt()];
+		final int[] heads = new int[keys.length];
+		final int size = in.readVInt();
+		for (int i = 0; i < size; i++) {
+			final int slot = in.readVInt();
+			keys[slot] = in.readLong();
+			heads[slot] = in.readVInt();
+		}
+		final int postings = in.readVInt();
+		final int[] postingSyllable = new int[postings];
+		final int[] postingNext = new int[postings];
+		for (int p = 0; p < postings; p++) {
+			postingSyllable[p] = in.readVInt();
+			postingNext[p] = in.readVInt() - 1;
+		}
+		return new SyllableSuggester(maxEdits, syllables, freqs, keys, heads, size, postingSyllable, postingNext, postings);
+	}
+
+	private void put(long hash, int id) {
+		if (size * 2 >= keys.length) {
+			rehash();
+		}
+		final int mask = keys.length - 1;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		while (keys[slot] != 0 && keys[slot] != hash) {
+			slot = (slot + 1) & mask;
+		}
+		if (keys[slot] == 0) {
+			keys[slot] = hash;
+			heads[slot] = -1;
+			size++;
+		}
+		if (postings == postingSyllable.length) {
+			postingSyllable = ArrayUtil.grow(postingSyllable);
+			postingNext = ArrayUtil.grow(postingNext, postingSyllable.length);
+		}
+		postingSyllable[postings] = id;
+		postingNext[postings] = heads[slot];
+		heads[slot] = postings++;
+	}
+
+	private void rehash() {
+		final long[] oldKeys = keys;
+		final int[] oldHeads = heads;
+		keys = new long[oldKeys.length * 2];
+		heads = new int[keys.length];
+		final int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			final long hash = oldKeys[i];
+			if (hash != 0) {
+				int slot = (int) (hash ^ (hash >>> 32)) & mask;
+				while (keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = hash;
+				heads[slot] = oldHeads[i];
+			}
+		}
+	}
+
+	private int lookup(long hash) {
+		final int mask = keys.length - 1;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		while (keys[slot] != 0) {
+			if (keys[slot] == hash) {
+				return heads[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes the folded form of <tt>syllable</tt> to <tt>folded</tt> and returns its length, which is at most that of the syllable. Every edit that
+	 * {@link #distance(String, String)} charges less than one for is undone by folding.
+	 */
+	static int fold(String syllable, char[] folded) {
+		int len = 0;
+		for (int i = 0; i < syllable.length(); i++) {
+			char c = syllable.charAt(i);
+			if (c == '\u0F60' || c == '\'') {
+				continue;
+			}
+			if ('\u0F90' <= c && c <= '\u0FBC') {
+				c -= 0x50;
+			} else if (c == '\u0F7A' || c == '\u0F80') {
+				c = '\u0F72';
+			} else if (c == '\u0F7C') {
+				c = '\u0F74';
+			} else if (c == 'e') {
+				c = 'i';
+			} else if (c == 'o') {
+				c = 'u';
+			}
+			folded[len++] = c;
+		}
+		return len;
+	}
+
+	/** FNV-1a, never 0 so that 0 can mark an empty slot */
+	private static long hash(char[] chars, int len) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < len; i++) {
+			h ^= chars[i];
+			h *= 0x100000001b3L;
+		}
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * Returns up to <tt>count</tt> indexed syllables within a weighted distance of <tt>maxEdits</tt> of <tt>syllable</tt>, best first. An indexed
+	 * syllable equal to <tt>syllable</tt> is returned first with a distance of 0.
+	 */
+	public List<Suggestion> suggest(String syllable, int count) {
+		final int len = syllable.length();
+		if (len == 0 || len > MAX_SYLLABLE_LENGTH) {
+			return Collections.emptyList();
+		}
+		final char[][] scratch = new char[maxEdits + 1][len];
+		final LongSet candidates = new LongSet();
+		collect(scratch, fold(syllable, scratch[maxEdits]), 0, maxEdits, new LongSet(), candidates);
+
+		final List<Suggestion> suggestions = new ArrayList<Suggestion>();
+		for (int i = 0; i < candidates.size(); i++) {
+			final int id = (int) candidates.get(i) - 1;
+			final String candidate = syllables[id];
+			final float distance = distance(syllable, candidate);
+			if (distance <= maxEdits) {
+				suggestions.add(new Suggestion(candidate, distance, freqs[id]));
+			}
+		}
+		Collections.sort(suggestions, RANKING);
+		return suggestions.size() > count ? suggestions.subList(0, count) : suggestions;
+	}
+
+	private void collect(char[][] scratch, int len, int from, int edits, LongSet seen, LongSet candidates) {
+		final char[] chars = scratch[edits];
+		final long hash = hash(chars, len);
+		if (seen.add(hash)) {
+			for (int p = lookup(hash); p != -1; p = postingNext[p]) {
+				// ids are stored plus one, as 0 marks an empty slot
+				candidates.add(postingSyllable[p] + 1L);
+			}
+		}
+		if (edits == 0 || len == 0) {
+			return;
+		}
+		final char[] shorter = scratch[edits - 1];
+		for (int i = from; i < len; i++) {
+			System.arraycopy(chars, 0, shorter, 0, i);
+			System.arraycopy(chars, i + 1, shorter, i, len - i - 1);
+			collect(scratch, len - 1, i, edits - 1, seen, candidates);
+		}
+	}
+
+	/**
+	 * An open addressing set of non-zero longs that remembers its slots, so that clearing it between syllables costs as much as what was added.
+	 */
+	private static final class LongSet {
+		private long[] table = new long[64];
+		private int[] used = new int[32];
+		private int size;
+
+		/** Returns false if <tt>value</tt> was already in the set */
+		boolean add(long value) {
+			if (size * 2 >= table.length) {
+				grow();
+			}
+			final int mask = table.length - 1;
+			int slot = (int) (value ^ (value >>> 32)) & mask;
+			while (table[slot] != 0) {
+				if (table[slot] == value) {
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = value;
+			used[size++] = slot;
+			return true;
+		}
+
+		int size() {
+			return size;
+		}
+
+		/** Returns the <tt>i</tt>th value added */
+		long get(int i) {
+			return table[used[i]];
+		}
+
+		void clear() {
+			for (int i = 0; i < size; i++) {
+				table[used[i]] = 0;
+			}
+			size = 0;
+		}
+
+		private void grow() {
+			final long[] oldTable = table;
+			final int[] oldUsed = used;
+			final int oldSize = size;
+			table = new long[oldTable.length * 2];
+			used = new int[table.length / 2];
+			size = 0;
+			for (int i = 0; i < oldSize; i++) {
+				add(oldTable[oldUsed[i]]);
+			}
+		}
+	}
+
+	/** Weighted optimal string alignment distance with the Tibetan aware costs. */
+	static float distance(String a, String b) {
+		final int n = a.length();
+		final int m = b.length();
+		final float[][] d = new float[n + 1][m + 1];
+		for (int i = 0; i <= n; i++) {
+			d[i][0] = i == 0 ? 0 : d[i - 1][0] + indelCost(a.charAt(i - 1));
+		}
+		for (int j = 1; j <= m; j++) {
+			d[0][j] = d[0][j - 1] + indelCost(b.charAt(j - 1));
+		}
+		for (int i = 1; i <= n; i++) {
+			final char ca = a.charAt(i - 1);
+			for (int j = 1; j <= m; j++) {
+				final char cb = b.charAt(j - 1);
+				float best = d[i - 1][j - 1] + substitutionCost(ca, cb);
+				best = Math.min(best, d[i - 1][j] + indelCost(ca));
+				best = Math.min(best, d[i][j - 1] + indelCost(cb));
+				if (i > 1 && j > 1 && ca == b.charAt(j - 2) && a.charAt(i - 2) == cb) {
+					best = Math.min(best, d[i - 2][j - 2] + 1);
+				}
+				d[i][j] = best;
+			}
+		}
+		return d[n][m];
+	}
+
+	private static float indelCost(char c) {
+		// a-chung and its Wylie apostrophe are often dropped or added
+		return c == '\u0F60' || c == '\'' ? VOWEL_COST : 1;
+	}
+
+	private static float substitutionCost(char a, char b) {
+		if (a == b) {
+			return 0;
+		}
+		// subjoined U+0F90..U+0FBC for full U+0F40..U+0F6C
+		if (Math.abs(a - b) == 0x50 && isTibetanLetter((char) Math.min(a, b))) {
+			return SUBJOINED_COST;
+		}
+		if (isVowelPair(a, b) || isVowelPair(b, a)) {
+			return VOWEL_COST;
+		}
+		return 1;
+	}
+
+	private static boolean isTibetanLetter(char c) {
+		return '\u0F40' <= c && c <= '\u0F6C';
+	}
+
+	private static boolean isVowelPair(char a, char b) {
+		return (a == '\u0F72' && (b == '\u0F7A' || b == '\u0F80')) // i / e, reversed gi-gu
+				|| (a == '\u0F74' && b == '\u0F7C') // u / o
+				|| (a == 'i' && b == 'e') || (a == 'u' && b == 'o');
+	}
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.util.Attribute;
+import org.apache.lucene.util.AttributeImpl;
+import org.apache.lucene.util.AttributeSource.AttributeFactory;
+
+/**
+ * An {@link AttributeFactory} that creates a single {@link TibTokenAttributeImpl} for the term, offset, position increment, position length and
+ * type attributes of a token stream, and delegates every other attribute to another factory.
+ * <p>
+ * The factory holds no state and is shared by all the tokenizers of the Tibetan analyzers, which pass {@link #INSTANCE} to their tokenizers; the
+ * attribute instances themselves are reused with the analyzer's token stream components.
+ * <p>
+ * Derived from Lucene 4.4.0 analysis.Token.TokenAttributeFactory
+ */
+public final class TibAttributeFactory extends AttributeFactory {
+
+	/** Packs the token attributes and delegates to {@link AttributeFactory#DEFAULT_ATTRIBUTE_FACTORY} */
+	public static final AttributeFactory INSTANCE = new TibAttributeFactory(AttributeFactory.DEFAULT_ATTRIBUTE_FACTORY);
+
+	private final AttributeFactory delegate;
+
+	/**
+	 * Creates a factory that packs the token attributes and uses <tt>delegate</tt> for all others
+	 */
+	public TibAttributeFactory(AttributeFactory delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public AttributeImpl createAttributeInstance(Class<? extends Attribute> attClass) {
+		return attClass.isAssignableFrom(TibTokenAttributeImpl.class) ? new TibTokenAttributeImpl() : delegate.createAttributeInstance(attClass);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other instanceof TibAttributeFactory) {
+			return delegate.equals(((TibAttributeFactory) other).delegate);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return delegate.hashCode() ^ 0x0F40;
+	}
+}
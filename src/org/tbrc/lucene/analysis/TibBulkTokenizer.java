@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.util.CharTokenizer;
+
+/**
+ * A TibBulkTokenizer produces the same tokens as {@link TibWhitespaceTokenizer}
+ * but is meant for long etexts: it scans its I/O buffer for tsheg, shad,
+ * space and non-Tibetan boundaries with a table lookup per char and copies
+ * each run of Tibetan Letter and/or Digit characters into the term in one
+ * {@link System#arraycopy}, instead of decoding, testing and appending one
+ * code point at a time like {@link CharTokenizer}.
+ * <p>
+ * All Tibetan token chars are in the BMP, so a surrogate is simply a
+ * separator and the scan never has to decode code points. As with
+ * {@link CharTokenizer}, tokens longer than 255 chars are split.
+ * <p>
+ * Use it in place of {@link TibWhitespaceTokenizer} where whole volumes are
+ * indexed; {@link TokenizerBenchmark} compares the two.
+ * <p>
+ * Derived from Lucene 4.4.0 analysis.util.CharTokenizer.java
+ */
+public final class TibBulkTokenizer extends Tokenizer {
+
+  private static final int MAX_WORD_LEN = 255;
+  private static final int IO_BUFFER_SIZE = 16384;
+
+  /** Token chars of the U+0F00 block, indexed by the low byte */
+  private static final boolean[] TIB_TOKEN_CHARS = new boolean[256];
+
+  static {
+    for (int i = 0; i < TIB_TOKEN_CHARS.length; i++) {
+      TIB_TOKEN_CHARS[i] = TibWhitespaceTokenizer.isTibLetterOrDigitChar(0x0F00 + i);
+    }
+  }
+
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+  private final char[] ioBuffer = new char[IO_BUFFER_SIZE];
+  private int offset = 0, bufferIndex = 0, dataLen = 0, finalOffset = 0;
+
+  /**
+   * Construct a new TibBulkTokenizer.
+   * 
+   * @param in
+   *          the input to split up into tokens
+   */
+  public TibBulkTokenizer(Reader in) {
+    super(in);
+  }
+
+  /**
+   * Construct a new TibBulkTokenizer using a given
+   * {@link org.apache.lucene.util.AttributeSource.AttributeFactory}.
+   *
+   * @param factory
+   *          the attribute factory to use for this {@link Tokenizer}
+   * @param in
+   *          the input to split up into tokens
+   */
+  public TibBulkTokenizer(AttributeFactory factory, Reader in) {
+    super(factory, in);
+  }
+
+  /** Same test as {@link TibWhitespaceTokenizer#isTibLetterOrDigitChar(int)}, for a single char.*/
+  static boolean isTokenChar(char c) {
+    return (c & 0xFF00) == 0x0F00 && TIB_TOKEN_CHARS[c & 0xFF];
+  }
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    clearAttributes();
+    final char[] io = ioBuffer;
+    char[] buffer = termAtt.buffer();
+    int length = 0;
+    int start = -1; // this variable is always initialized
+    while (true) {
+      if (bufferIndex >= dataLen) {
+        offset += dataLen;
+        dataLen = input.read(io, 0, io.length);
+        bufferIndex = 0;
+        if (dataLen <= 0) {
+          dataLen = 0; // so next offset += dataLen won't decrement offset
+          if (length > 0) {
+            break;
+          } else {
+            finalOffset = correctOffset(offset);
+            return false;
+          }
+        }
+      }
+      int i = bufferIndex;
+      final int limit = dataLen;
+      if (length == 0) {
+        // skip the separators before the token
+        while (i < limit && !isTokenChar(io[i])) {
+          i++;
+        }
+        if (i == limit) {
+          bufferIndex = i;
+          continue;
+        }
+        start = offset + i;
+      }
+      // find the end of the run, within the buffer and the maximum token length
+      final int runStart = i;
+      final int runLimit = Math.min(limit, i + MAX_WORD_LEN - length);
+      while (i < runLimit && isTokenChar(io[i])) {
+        i++;
+      }
+      final int runLength = i - runStart;
+      if (length + runLength > buffer.length) {
+        buffer = termAtt.resizeBuffer(length + runLength);
+      }
+      System.arraycopy(io, runStart, buffer, length, runLength);
+      length += runLength;
+      bufferIndex = i;
+      if (i < limit || length >= MAX_WORD_LEN) {
+        // at a separator, or the token is full; otherwise it goes on in the next buffer
+        break;
+      }
+    }
+
+    termAtt.setLength(length);
+    assert start != -1;
+    offsetAtt.setOffset(correctOffset(start), finalOffset = correctOffset(start + length));
+    return true;
+  }
+
+  @Override
+  public void end() {
+    // set final offset
+    offsetAtt.setOffset(finalOffset, finalOffset);
+  }
+
+  @Override
+  public void reset() throws IOException {
+    bufferIndex = 0;
+    offset = 0;
+    dataLen = 0;
+    finalOffset = 0;
+  }
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.document.DoubleField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.search.NumericRangeQuery;
+
+/**
+ * Normalizes tokens made only of Tibetan digits, U+0F20 through U+0F33, to ASCII decimal numbers for use in the TibetanAnalyzer.
+ * <p>
+ * The half digits U+0F2A (half one) through U+0F32 (half nine) and U+0F33 (half zero) stand for the digit less one half and may only end a number, so
+ * "&#x0F21;&#x0F22;" becomes "12" and "&#x0F21;&#x0F2C;" (one, half three) becomes "12.5". Tokens mixing digits with letters are left alone. The
+ * number is parsed and written back into the term buffer without allocating, and the token type is set to {@link #NUMERAL_TYPE}.
+ * <p>
+ * Indexed as text, a folio or volume number can only be searched by a term range scan. For range queries index the value a second time with
+ * {@link #numericField(String, CharSequence, Field.Store)} and search it with {@link #newRangeQuery(String, CharSequence, CharSequence)}, which use
+ * Lucene's trie encoded {@link DoubleField} and {@link NumericRangeQuery} and visit only a few terms per precision step.
+ * <p>
+ * Derived from Lucene 4.4.0 analysis.standard.ClassicFilter
+ */
+
+public class TibNumeralFilter extends TokenFilter {
+	/** Token type of normalized numerals */
+	public static final String NUMERAL_TYPE = "<NUM>";
+
+	static char TIB_ZERO = '\u0F20';
+	static char TIB_NINE = '\u0F29';
+	static char TIB_HALF_ONE = '\u0F2A';
+	static char TIB_HALF_ZERO = '\u0F33';
+
+	public TibNumeralFilter(TokenStream in) {
+		super(in);
+	}
+
+	private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+	private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+	/**
+	 * Returns the next token in the stream, or null at EOS.
+	 * <p>
+	 * Rewrites Tibetan numerals as ASCII decimal numbers.
+	 */
+	@Override
+	public final boolean incrementToken() throws java.io.IOException {
+		if (!input.incrementToken()) {
+			return false;
+		}
+
+		final int len = termAtt.length();
+		final long halves = parseHalves(termAtt.buffer(), len);
+		if (halves == NOT_A_NUMERAL) {
+			return true;
+		}
+
+		// at most 19 digits, a sign and ".5"
+		final char[] buffer = termAtt.resizeBuffer(22);
+		termAtt.setLength(format(halves, buffer));
+		typeAtt.setType(NUMERAL_TYPE);
+
+		return true;
+	}
+
+	private static final long NOT_A_NUMERAL = Long.MIN_VALUE;
+
+	/**
+	 * Returns twice the value of a Tibetan numeral, or NOT_A_NUMERAL. Working in halves keeps the half digits exact.
+	 */
+	private static long parseHalves(char[] buffer, int len) {
+		if (len == 0 || len > 18) {
+			return NOT_A_NUMERAL;
+		}
+		long value = 0;
+		for (int i = 0; i < len; i++) {
+			final char c = buffer[i];
+			if (TIB_ZERO <= c && c <= TIB_NINE) {
+				value = value * 10 + (c - TIB_ZERO);
+			} else if (TIB_HALF_ONE <= c && c <= TIB_HALF_ZERO && i == len - 1) {
+				// half one .. half nine, then half zero
+				final int digit = c == TIB_HALF_ZERO ? 0 : c - TIB_HALF_ONE + 1;
+				return (value * 10 + digit) * 2 - 1;
+			} else {
+				return NOT_A_NUMERAL;
+			}
+		}
+		return value * 2;
+	}
+
+	/** Writes a value given in halves as an ASCII decimal number and returns its length. */
+	private static int format(long halves, char[] buffer) {
+		int upto = 0;
+		if (halves < 0) {
+			// only a lone half zero is negative
+			buffer[upto++] = '-';
+			halves = -halves;
+		}
+		final long whole = halves / 2;
+		int start = upto;
+		long v = whole;
+		do {
+			buffer[upto++] = (char) ('0' + v % 10);
+			v /= 10;
+		} while (v != 0);
+		for (int i = start, j = upto - 1; i < j; i++, j--) {
+			final char c = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = c;
+		}
+		if ((halves & 1) != 0) {
+			buffer[upto++] = '.';
+			buffer[upto++] = '5';
+		}
+		return upto;
+	}
+
+	/**
+	 * Returns the value of a numeral written in Tibetan digits, or {@link Double#NaN} if <tt>number</tt> is not one.
+	 */
+	public static double parse(CharSequence number) {
+		final int len = number.length();
+		final char[] buffer = new char[len];
+		for (int i = 0; i < len; i++) {
+			buffer[i] = number.charAt(i);
+		}
+		final long halves = parseHalves(buffer, len);
+		return halves == NOT_A_NUMERAL ? Double.NaN : halves / 2.0;
+	}
+
+	/**
+	 * Returns a trie encoded companion field holding the value of a numeral written in Tibetan digits, such as a folio or volume number.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <tt>number</tt> is not a Tibetan numeral
+	 */
+	public static DoubleField numericField(String name, CharSequence number, Field.Store store) {
+		final double value = parse(number);
+		if (Double.isNaN(value)) {
+			throw new IllegalArgumentException("not a Tibetan numeral: " + number);
+		}
+		return new DoubleField(name, value, store);
+	}
+
+	/**
+	 * Returns an inclusive range query over a field added with {@link #numericField(String, CharSequence, Field.Store)}. Either bound may be null for an
+	 * open range.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a bound is not a Tibetan numeral
+	 */
+	public static NumericRangeQuery<Double> newRangeQuery(String field, CharSequence lower, CharSequence upper) {
+		return NumericRangeQuery.newDoubleRange(field, bound(lower), bound(upper), true, true);
+	}
+
+	private static Double bound(CharSequence number) {
+		if (number == null) {
+			return null;
+		}
+		final double value = parse(number);
+		if (Double.isNaN(value)) {
+			throw new IllegalArgumentException("not a Tibetan numeral: " + number);
+		}
+		return value;
+	}
+}
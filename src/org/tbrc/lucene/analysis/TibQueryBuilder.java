@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Builds queries from user input with the same analyzer that indexed the field, {@link TibetanAnalyzer}, {@link WylieAnalyzer},
+ * {@link MixedScriptAnalyzer} or {@link ChunkAnalyzer}.
+ * <p>
+ * The input is split into phrases at shad, U+0F0D to U+0F12 and U+0F14, or at the EWTS shad <tt>/</tt>. Each phrase becomes a {@link PhraseQuery}
+ * of its syllables, or a {@link TermQuery} for a single syllable, instead of the boolean query over all syllables that a generic query parser
+ * produces. Syllables at the same position, such as the variants of a synonym map, give a {@link MultiPhraseQuery}. Particles are dropped by the
+ * analyzer's stop filter exactly as at index time; since the analyzers do not leave position gaps for them, the remaining syllables are adjacent in
+ * the index too.
+ * <p>
+ * The phrases are combined in a {@link BooleanQuery}, by default with {@link BooleanClause.Occur#MUST}. Given an {@link IndexReader}, the clauses
+ * are ordered by the document frequency of their rarest syllable, rarest first, and a required phrase with a syllable that is not in the index
+ * short-cuts the whole query to one that matches nothing.
+ */
+public final class TibQueryBuilder {
+
+	private final Analyzer analyzer;
+	private final IndexReader reader;
+	private BooleanClause.Occur occur = BooleanClause.Occur.MUST;
+	private int phraseSlop = 0;
+
+	/**
+	 * Creates a query builder that keeps the phrases in input order.
+	 */
+	public TibQueryBuilder(Analyzer analyzer) {
+		this(analyzer, null);
+	}
+
+	/**
+	 * Creates a query builder that orders phrases by the document frequencies in <tt>reader</tt>, or keeps input order if it is null.
+	 */
+	public TibQueryBuilder(Analyzer analyzer, IndexReader reader) {
+		this.analyzer = analyzer;
+		this.reader = reader;
+	}
+
+	/** Sets how the phrases of the input are combined, {@link BooleanClause.Occur#MUST} by default */
+	public void setOccur(BooleanClause.Occur occur) {
+		this.occur = occur;
+	}
+
+	/** Sets the slop of the phrase queries, 0 by default */
+	public void setPhraseSlop(int phraseSlop) {
+		this.phraseSlop = phraseSlop;
+	}
+
+	/** Returns true for the shad marks that separate the phrases of the input */
+	static boolean isShad(char c) {
+		return ('\u0F0D' <= c && c <= '\u0F12') || c == '\u0F14' || c == '/';
+	}
+
+	/**
+	 * Creates a query for <tt>text</tt> on <tt>field</tt>, or returns null if the analyzer leaves no syllables.
+	 */
+	public Query createQuery(String field, String text) throws IOException {
+		final List<Clause> clauses = new ArrayList<Clause>();
+		int start = 0;
+		for (int i = 0; i <= text.length(); i++) {
+			if (i == text.length() || isShad(text.charAt(i))) {
+				if (i > start) {
+					final Clause clause = createClause(field, text.substring(start, i));
+					if (clause != null) {
+						clauses.add(clause);
+					}
+				}
+				start = i + 1;
+			}
+		}
+
+		if (clauses.isEmpty()) {
+			return null;
+		}
+		if (clauses.size() == 1) {
+			return clauses.get(0).query;
+		}
+		if (reader != null) {
+			Collections.sort(clauses);
+			if (occur == BooleanClause.Occur.MUST && clauses.get(0).docFreq == 0) {
+				// a required phrase can not match, neither can the query
+				return new BooleanQuery();
+			}
+		}
+		final BooleanQuery query = new BooleanQuery();
+		for (Clause clause : clauses) {
+			query.add(clause.query, occur);
+		}
+		return query;
+	}
+
+	/**
+	 * Analyzes one phrase and returns its query, or null if no syllables are left.
+	 */
+	private Clause createClause(String field, String phrase) throws IOException {
+		final List<List<Term>> stack = new ArrayList<List<Term>>();
+		final TokenStream ts = analyzer.tokenStream(field, phrase);
+		try {
+			final CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
+			final PositionIncrementAttribute posIncAtt = ts.addAttribute(PositionIncrementAttribute.class);
+			ts.reset();
+			while (ts.incrementToken()) {
+				final Term term = new Term(field, termAtt.toString());
+				final int increment = posIncAtt.getPositionIncrement();
+				if (increment == 0 && !stack.isEmpty()) {
+					stack.get(stack.size() - 1).add(term);
+				} else {
+					// a gap left by a filter is kept as empty positions
+					for (int i = 1; i < increment && !stack.isEmpty(); i++) {
+						stack.add(new ArrayList<Term>(0));
+					}
+					final List<Term> terms = new ArrayList<Term>(1);
+					terms.add(term);
+					stack.add(terms);
+				}
+			}
+			ts.end();
+		} finally {
+			ts.close();
+		}
+
+		if (stack.isEmpty()) {
+			return null;
+		}
+
+		long docFreq = Long.MAX_VALUE;
+		boolean multi = false;
+		for (List<Term> terms : stack) {
+			if (!terms.isEmpty()) {
+				docFreq = Math.min(docFreq, docFreq(terms));
+				multi |= terms.size() > 1;
+			}
+		}
+
+		final Query query;
+		if (stack.size() == 1) {
+			final List<Term> terms = stack.get(0);
+			if (terms.size() == 1) {
+				query = new TermQuery(terms.get(0));
+			} else {
+				final BooleanQuery q = new BooleanQuery(true);
+				for (Term term : terms) {
+					q.add(new TermQuery(term), BooleanClause.Occur.SHOULD);
+				}
+				query = q;
+			}
+		} else if (!multi) {
+			final PhraseQuery q = new PhraseQuery();
+			q.setSlop(phraseSlop);
+			for (int position = 0; position < stack.size(); position++) {
+				if (!stack.get(position).isEmpty()) {
+					q.add(stack.get(position).get(0), position);
+				}
+			}
+			query = q;
+		} else {
+			final MultiPhraseQuery q = new MultiPhraseQuery();
+			q.setSlop(phraseSlop);
+			for (int position = 0; position < stack.size(); position++) {
+				final List<Term> terms = stack.get(position);
+				if (!terms.isEmpty()) {
+					q.add(terms.toArray(new Term[terms.size()]), position);
+				}
+			}
+			query = q;
+		}
+		return new Clause(query, docFreq);
+	}
+
+	/** The number of documents containing any of the terms at one position, at most */
+	private long docFreq(List<Term> terms) throws IOException {
+		if (reader == null) {
+			return 0;
+		}
+		long docFreq = 0;
+		for (Term term : terms) {
+			docFreq += reader.docFreq(term);
+		}
+		return docFreq;
+	}
+
+	private static final class Clause implements Comparable<Clause> {
+		final Query query;
+		final long docFreq;
+
+		Clause(Query query, long docFreq) {
+			this.query = query;
+			this.docFreq = docFreq;
+		}
+
+		@Override
+		public int compareTo(Clause other) {
+			return docFreq < other.docFreq ? -1 : docFreq == other.docFreq ? 0 : 1;
+		}
+	}
+}
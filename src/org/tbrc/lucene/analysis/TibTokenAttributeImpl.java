@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.tokenattributes.CharTermAttributeImpl;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.AttributeImpl;
+import org.apache.lucene.util.AttributeReflector;
+
+/**
+ * One {@link AttributeImpl} holding the term, offsets, position increment, position length and type of a token, created by
+ * {@link TibAttributeFactory}.
+ * <p>
+ * A chain of the Tibetan analyzers then carries one attribute instance instead of five, so {@link #clear()}, {@link #copyTo(AttributeImpl)} and the
+ * {@link org.apache.lucene.util.AttributeSource.State} captured by the stop, synonym and tee filters each touch a single object. Unlike
+ * {@link org.apache.lucene.analysis.Token} it has no flags or payload, which these analyzers never set.
+ * <p>
+ * Derived from Lucene 4.4.0 analysis.Token.java
+ */
+public class TibTokenAttributeImpl extends CharTermAttributeImpl implements TypeAttribute, PositionIncrementAttribute, PositionLengthAttribute,
+		OffsetAttribute {
+
+	private int startOffset, endOffset;
+	private String type = DEFAULT_TYPE;
+	private int positionIncrement = 1;
+	private int positionLength = 1;
+
+	/** Constructs the attribute empty, as {@link #clear()} leaves it */
+	public TibTokenAttributeImpl() {
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the increment is negative
+	 */
+	@Override
+	public void setPositionIncrement(int positionIncrement) {
+		if (positionIncrement < 0) {
+			throw new IllegalArgumentException("Increment must be zero or greater: " + positionIncrement);
+		}
+		this.positionIncrement = positionIncrement;
+	}
+
+	@Override
+	public int getPositionIncrement() {
+		return positionIncrement;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the length is not positive
+	 */
+	@Override
+	public void setPositionLength(int positionLength) {
+		if (positionLength < 1) {
+			throw new IllegalArgumentException("Position length must be 1 or greater: got " + positionLength);
+		}
+		this.positionLength = positionLength;
+	}
+
+	@Override
+	public int getPositionLength() {
+		return positionLength;
+	}
+
+	@Override
+	public final int startOffset() {
+		return startOffset;
+	}
+
+	@Override
+	public final int endOffset() {
+		return endOffset;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the offsets are negative or go backwards
+	 */
+	@Override
+	public void setOffset(int startOffset, int endOffset) {
+		if (startOffset < 0 || endOffset < startOffset) {
+			throw new IllegalArgumentException("startOffset must be non-negative, and endOffset must be >= startOffset, startOffset=" + startOffset
+					+ ",endOffset=" + endOffset);
+		}
+		this.startOffset = startOffset;
+		this.endOffset = endOffset;
+	}
+
+	@Override
+	public final String type() {
+		return type;
+	}
+
+	@Override
+	public final void setType(String type) {
+		this.type = type;
+	}
+
+	/** Resets the term to empty and all other fields to their defaults */
+	@Override
+	public void clear() {
+		super.clear();
+		positionIncrement = positionLength = 1;
+		startOffset = endOffset = 0;
+		type = DEFAULT_TYPE;
+	}
+
+	@Override
+	public TibTokenAttributeImpl clone() {
+		// the primitives and the immutable type are copied by Object.clone(), the term buffer by super
+		return (TibTokenAttributeImpl) super.clone();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (obj instanceof TibTokenAttributeImpl) {
+			final TibTokenAttributeImpl other = (TibTokenAttributeImpl) obj;
+			return startOffset == other.startOffset && endOffset == other.endOffset && positionIncrement == other.positionIncrement
+					&& positionLength == other.positionLength && (type == null ? other.type == null : type.equals(other.type)) && super.equals(obj);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		int code = super.hashCode();
+		code = code * 31 + startOffset;
+		code = code * 31 + endOffset;
+		code = code * 31 + positionIncrement;
+		code = code * 31 + positionLength;
+		if (type != null) {
+			code = code * 31 + type.hashCode();
+		}
+		return code;
+	}
+
+	@Override
+	public void copyTo(AttributeImpl target) {
+		if (target instanceof TibTokenAttributeImpl) {
+			final TibTokenAttributeImpl to = (TibTokenAttributeImpl) target;
+			to.copyBuffer(buffer(), 0, length());
+			to.startOffset = startOffset;
+			to.endOffset = endOffset;
+			to.positionIncrement = positionIncrement;
+			to.positionLength = positionLength;
+			to.type = type;
+		} else {
+			super.copyTo(target);
+			((OffsetAttribute) target).setOffset(startOffset, endOffset);
+			((PositionIncrementAttribute) target).setPositionIncrement(positionIncrement);
+			((PositionLengthAttribute) target).setPositionLength(positionLength);
+			((TypeAttribute) target).setType(type);
+		}
+	}
+
+	@Override
+	public void reflectWith(AttributeReflector reflector) {
+		super.reflectWith(reflector);
+		reflector.reflect(OffsetAttribute.class, "startOffset", startOffset);
+		reflector.reflect(OffsetAttribute.class, "endOffset", endOffset);
+		reflector.reflect(PositionIncrementAttribute.class, "positionIncrement", positionIncrement);
+		reflector.reflect(PositionLengthAttribute.class, "positionLength", positionLength);
+		reflector.reflect(TypeAttribute.class, "type", type);
+	}
+}
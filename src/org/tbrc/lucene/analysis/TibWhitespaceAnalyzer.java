@@ -70,6 +70,6 @@ public final class TibWhitespaceAnalyzer extends Analyzer {
   @Override
   protected TokenStreamComponents createComponents(final String fieldName,
       final Reader reader) {
-    return new TokenStreamComponents(new TibWhitespaceTokenizer(matchVersion, reader));
+    return new TokenStreamComponents(new TibWhitespaceTokenizer(matchVersion, TibAttributeFactory.INSTANCE, reader));
   }
 }
@@ -83,6 +83,11 @@ public final class TibWhitespaceTokenizer extends CharTokenizer {
   }
   
   protected boolean isTibLetterOrDigit(int c) {
+	  return isTibLetterOrDigitChar(c);
+  }
+  
+  /** The U+0F00 block check shared with {@link MixedScriptTokenizer}.*/
+  static boolean isTibLetterOrDigitChar(int c) {
 	  return ('\u0F40' <= c && c <= '\u0F83') || ('\u0F90' <= c && c <= '\u0FBC') || ('\u0F20' <= c && c <= '\u0F33') || (c == '\u0F00');
   }
   
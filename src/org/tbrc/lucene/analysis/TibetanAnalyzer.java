@@ -43,10 +43,12 @@ import java.util.List;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.Tokenizer;
-import org.apache.lucene.analysis.core.StopFilter;
+import org.apache.lucene.analysis.charfilter.MappingCharFilter;
+import org.apache.lucene.analysis.synonym.SynonymMap;
 import org.apache.lucene.analysis.core.WhitespaceTokenizer;
 import org.apache.lucene.analysis.util.CharArraySet;
 import org.apache.lucene.analysis.util.CharTokenizer;
+import org.apache.lucene.analysis.util.WordlistLoader;
 import org.apache.lucene.util.Version;
 
 /**
@@ -89,6 +91,8 @@ public final class TibetanAnalyzer extends Analyzer {
 	}
 
 	private final Version matchVersion;
+	private final SynonymMap variants;
+	private final CharArraySet stopWords;
 
 	/**
 	 * Creates a new {@link WhitespaceAnalyzer}
@@ -97,17 +101,54 @@ public final class TibetanAnalyzer extends Analyzer {
 	 *            Lucene version to match See {@link <a href="#version">above</a>}
 	 */
 	public TibetanAnalyzer(Version matchVersion) {
+		this(matchVersion, null, TIBETAN_STOP_WORDS_SET);
+	}
+
+	/**
+	 * Creates a new {@link TibetanAnalyzer} that folds spelling variants and archaic orthography at index time
+	 * 
+	 * @param matchVersion
+	 *            Lucene version to match See {@link <a href="#version">above</a>}
+	 * @param variants
+	 *            the variants to fold, usually {@link VariantMaps#tibetan()}, or null for none
+	 */
+	public TibetanAnalyzer(Version matchVersion, SynonymMap variants) {
+		this(matchVersion, variants, TIBETAN_STOP_WORDS_SET);
+	}
+
+	/**
+	 * Creates a new {@link TibetanAnalyzer} that folds spelling variants and removes its own stop words, for instance a list written by
+	 * {@link StopListBuilder} and read with {@link WordlistLoader#getWordSet(Reader, String, Version)}
+	 * 
+	 * @param matchVersion
+	 *            Lucene version to match See {@link <a href="#version">above</a>}
+	 * @param variants
+	 *            the variants to fold, usually {@link VariantMaps#tibetan()}, or null for none; a map compiled with the same stop words, see
+	 *            {@link VariantMaps#tibetan(Reader, CharArraySet)}
+	 * @param stopWords
+	 *            the stop words, in their analyzed form
+	 */
+	public TibetanAnalyzer(Version matchVersion, SynonymMap variants, CharArraySet stopWords) {
 		this.matchVersion = matchVersion;
+		this.variants = variants;
+		this.stopWords = CharArraySet.unmodifiableSet(CharArraySet.copy(matchVersion, stopWords));
+	}
+
+	@Override
+	protected Reader initReader(String fieldName, Reader reader) {
+		return variants == null ? reader : new MappingCharFilter(VariantMaps.TIBETAN_CHAR_MAP, reader);
 	}
 
-	@SuppressWarnings("deprecation")
 	@Override
 	protected TokenStreamComponents createComponents(final String fieldName, final Reader reader) {
-		Tokenizer source = new TibWhitespaceTokenizer(matchVersion, reader);
+		Tokenizer source = new TibWhitespaceTokenizer(matchVersion, TibAttributeFactory.INSTANCE, reader);
 
-		TokenFilter filter = new TibEndingFilter(source);
-		filter = new StopFilter(Version.LUCENE_43, filter, TIBETAN_STOP_WORDS_SET);
-		((StopFilter) filter).setEnablePositionIncrements(false);
+		// the same chain as the variant tables and the branches of MultiplexAnalyzer
+		TokenFilter filter = VariantMaps.stop(VariantMaps.tibetanFilters(source), stopWords);
+		// after the stop filter, which would drop the position gap a folded group leaves on the next token
+		if (variants != null) {
+			filter = VariantMaps.filter(filter, variants);
+		}
 
 		return new TokenStreamComponents(source, filter);
 	}
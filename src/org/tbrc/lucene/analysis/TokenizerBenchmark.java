@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Random;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.util.Version;
+
+/**
+ * Compares {@link TibWhitespaceTokenizer} with {@link TibBulkTokenizer} on long documents.
+ * <p>
+ * The document is a generated etext of the given size, with tsheg and shad punctuated syllables, Tibetan numerals and the occasional English word,
+ * or the UTF-8 contents of a file. Each tokenizer is run over it repeatedly after a warm-up, and the best and mean throughput in chars per second are
+ * reported, along with a checksum of the terms and offsets that must be the same for both.
+ *
+ * <pre>
+ * java org.tbrc.lucene.analysis.TokenizerBenchmark [-chars N] [-iterations N] [-warmup N] [-seed N] [-file etext.txt]
+ * </pre>
+ */
+public final class TokenizerBenchmark {
+
+	private TokenizerBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int chars = 16 * 1024 * 1024;
+		int iterations = 20;
+		int warmup = 10;
+		long seed = 42;
+		String file = null;
+
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if ("-chars".equals(arg)) {
+				chars = Integer.parseInt(args[++i]);
+			} else if ("-iterations".equals(arg)) {
+				iterations = Integer.parseInt(args[++i]);
+			} else if ("-warmup".equals(arg)) {
+				warmup = Integer.parseInt(args[++i]);
+			} else if ("-seed".equals(arg)) {
+				seed = Long.parseLong(args[++i]);
+			} else if ("-file".equals(arg)) {
+				file = args[++i];
+			} else {
+				System.err.println("unknown argument " + arg);
+				System.err.println("usage: TokenizerBenchmark [-chars N] [-iterations N] [-warmup N] [-seed N] [-file etext.txt]");
+				System.exit(1);
+			}
+		}
+
+		final char[] text = file != null ? readText(file) : generateText(chars, new Random(seed));
+		System.out.println("# jvm=" + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + " chars=" + text.length
+				+ (file != null ? " file=" + file : " seed=" + seed) + " iterations=" + iterations + " warmup=" + warmup);
+		System.out.println("tokenizer\ttokens\tchecksum\tbest_mchars_per_s\tmean_mchars_per_s");
+
+		final Tokenizer[] tokenizers = { new TibWhitespaceTokenizer(Version.LUCENE_44, TibAttributeFactory.INSTANCE, new CharArrayReader(text)),
+				new TibBulkTokenizer(TibAttributeFactory.INSTANCE, new CharArrayReader(text)) };
+		long expected = 0;
+		for (int t = 0; t < tokenizers.length; t++) {
+			final Tokenizer tokenizer = tokenizers[t];
+			long checksum = 0;
+			int tokens = 0;
+			long best = Long.MAX_VALUE;
+			long total = 0;
+			for (int i = 0; i < warmup + iterations; i++) {
+				if (i > 0) {
+					tokenizer.setReader(new CharArrayReader(text));
+				}
+				final long begin = System.nanoTime();
+				checksum = 0;
+				tokens = 0;
+				final CharTermAttribute termAtt = tokenizer.addAttribute(CharTermAttribute.class);
+				final OffsetAttribute offsetAtt = tokenizer.addAttribute(OffsetAttribute.class);
+				tokenizer.reset();
+				while (tokenizer.incrementToken()) {
+					checksum = checksum * 31 + hash(termAtt.buffer(), termAtt.length()) + offsetAtt.startOffset();
+					tokens++;
+				}
+				tokenizer.end();
+				tokenizer.close();
+				final long elapsed = System.nanoTime() - begin;
+				if (i >= warmup) {
+					best = Math.min(best, elapsed);
+					total += elapsed;
+				}
+			}
+			if (t == 0) {
+				expected = checksum;
+			} else if (checksum != expected) {
+				throw new IllegalStateException(tokenizer.getClass().getSimpleName() + " differs from " + tokenizers[0].getClass().getSimpleName());
+			}
+			System.out.println(String.format("%s\t%d\t%016x\t%.1f\t%.1f", tokenizer.getClass().getSimpleName(), tokens, checksum, text.length
+					/ (best / 1e3), text.length / (total / (double) iterations / 1e3)));
+		}
+	}
+
+	private static int hash(char[] buffer, int length) {
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + buffer[i];
+		}
+		return h;
+	}
+
+	private static char[] readText(String file) throws IOException {
+		final Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			final CharArrayWriter writer = new CharArrayWriter();
+			final char[] buffer = new char[8192];
+			int n;
+			while ((n = reader.read(buffer)) != -1) {
+				writer.write(buffer, 0, n);
+			}
+			return writer.toCharArray();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Generates an etext of about <tt>chars</tt> chars: lines of shad separated phrases of tsheg separated syllables, with a folio number in Tibetan
+	 * digits at the start of each line and an English word now and then.
+	 */
+	static char[] generateText(int chars, Random random) {
+		final StringBuilder sb = new StringBuilder(chars + 64);
+		while (sb.length() < chars) {
+			// folio number
+			final int folio = random.nextInt(500);
+			for (char c : Integer.toString(folio).toCharArray()) {
+				sb.append((char) ('\u0F20' + c - '0'));
+			}
+			sb.append(' ');
+			final int phrases = 1 + random.nextInt(6);
+			for (int p = 0; p < phrases; p++) {
+				final int syllables = 2 + random.nextInt(10);
+				for (int s = 0; s < syllables; s++) {
+					final double u = random.nextDouble();
+					sb.append(Analyzers.TIBETAN_SYLLABLES[(int) (u * u * Analyzers.TIBETAN_SYLLABLES.length)]);
+					if (s < syllables - 1) {
+						sb.append('\u0F0B');
+					}
+				}
+				sb.append(random.nextInt(20) == 0 ? "\u0F0D\u0F0D " : "\u0F0D ");
+				if (random.nextInt(30) == 0) {
+					sb.append(Analyzers.ENGLISH_WORDS[random.nextInt(Analyzers.ENGLISH_WORDS.length)]).append(' ');
+				}
+			}
+			sb.append('\n');
+		}
+		final char[] text = new char[sb.length()];
+		sb.getChars(0, text.length, text, 0);
+		return text;
+	}
+}
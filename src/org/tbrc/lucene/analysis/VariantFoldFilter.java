@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.synonym.SynonymFilter;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+
+/**
+ * Folds the output of a {@link SynonymFilter} on a variant map of {@link VariantMaps} to the canonical spellings alone.
+ * <p>
+ * The variant maps keep the original tokens, since only then does {@link SynonymFilter} give the canonical spelling the position length of the
+ * syllables it matched. This filter drops the original tokens covered by a canonical spelling, so "thams cad mkhyen" becomes "thamd" at position 0
+ * with a position length of two and "mkhyen" at position 2, where it was.
+ */
+final class VariantFoldFilter extends TokenFilter {
+
+	private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+	private final PositionLengthAttribute posLenAtt = addAttribute(PositionLengthAttribute.class);
+	private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+	/** The token read ahead to see whether it replaces the current one */
+	private State pending;
+	private boolean exhausted;
+	/** Positions of the last canonical spelling not reached yet */
+	private int covered;
+	/** Increments of the dropped tokens, added to the next token */
+	private int gap;
+
+	VariantFoldFilter(TokenStream in) {
+		super(in);
+	}
+
+	private boolean nextInput() throws IOException {
+		if (pending != null) {
+			restoreState(pending);
+			pending = null;
+			return true;
+		}
+		if (exhausted || !input.incrementToken()) {
+			exhausted = true;
+			return false;
+		}
+		return true;
+	}
+
+	private boolean isVariant() {
+		return SynonymFilter.TYPE_SYNONYM.equals(typeAtt.type()) && posIncAtt.getPositionIncrement() == 0;
+	}
+
+	/**
+	 * Returns the next token in the stream, or null at EOS.
+	 */
+	@Override
+	public boolean incrementToken() throws IOException {
+		while (nextInput()) {
+			final int increment = posIncAtt.getPositionIncrement();
+			if (covered > 0 && increment <= covered) {
+				// an original syllable of the last canonical spelling
+				covered -= increment;
+				gap += increment;
+				continue;
+			}
+			covered = 0;
+
+			final State current = captureState();
+			if (!exhausted && input.incrementToken()) {
+				if (isVariant()) {
+					// the canonical spelling replaces the current token and covers the syllables after it
+					posIncAtt.setPositionIncrement(increment + gap);
+					covered = posLenAtt.getPositionLength() - 1;
+					gap = 0;
+					return true;
+				}
+				pending = captureState();
+			} else {
+				exhausted = true;
+			}
+			restoreState(current);
+			posIncAtt.setPositionIncrement(increment + gap);
+			gap = 0;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void reset() throws IOException {
+		super.reset();
+		pending = null;
+		exhausted = false;
+		covered = 0;
+		gap = 0;
+	}
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.ParseException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.charfilter.MappingCharFilter;
+import org.apache.lucene.analysis.charfilter.NormalizeCharMap;
+import org.apache.lucene.analysis.core.StopFilter;
+import org.apache.lucene.analysis.synonym.SolrSynonymParser;
+import org.apache.lucene.analysis.synonym.SynonymFilter;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.Version;
+
+/**
+ * Spelling variant and archaic orthography tables for {@link TibetanAnalyzer} and {@link WylieAnalyzer}, compiled into the FSTs of a
+ * {@link SynonymMap}.
+ * <p>
+ * A table lists da-drag spellings, abbreviations and alternative spellings of Sanskrit loans in the Solr synonym format. Every spelling of a group is
+ * rewritten at index time to the first spelling of the group, so a query for any of them becomes a lookup of one term instead of an OR over all of
+ * them. A group may span several syllables, but its first spelling must be a single term. "thams cad" is replaced by the single term "thamd" with a
+ * position length of two, and the positions of the following syllables are unchanged: the maps keep the original tokens so that
+ * {@link SynonymFilter} sets the position length, and {@link VariantFoldFilter} then drops the originals, see {@link #filter(TokenStream, SynonymMap)}.
+ * <p>
+ * The variants are folded after the stop filter of the analyzer, which leaves no position gaps and would otherwise drop the gap a folded group leaves
+ * on the next token when that token is a particle. The tables are therefore compiled with the stop words of the analyzer, so that a particle inside
+ * a group is removed from the entry as it is from the text; an analyzer with its own stop words needs a map compiled with them.
+ * <p>
+ * Variants within a syllable that are not worth listing word by word, such as the archaic reversed gi-gu, are folded by a {@link MappingCharFilter}
+ * in front of the tokenizer, see {@link #TIBETAN_CHAR_MAP} and {@link #WYLIE_CHAR_MAP}.
+ * <p>
+ * The default tables are the resources <tt>tibetan-variants.txt</tt> and <tt>wylie-variants.txt</tt> next to this class.
+ */
+public final class VariantMaps {
+
+	/** Folds the reversed gi-gu U+0F80 and the reversed long i U+0F81 into the usual vowel signs */
+	public static final NormalizeCharMap TIBETAN_CHAR_MAP;
+
+	/**
+	 * Folds the EWTS reversed gi-gu <tt>-i</tt>, <tt>-I</tt> into <tt>i</tt>, <tt>I</tt>, keeping the vocalic <tt>r-i</tt>, <tt>l-i</tt>
+	 */
+	public static final NormalizeCharMap WYLIE_CHAR_MAP;
+
+	static {
+		NormalizeCharMap.Builder builder = new NormalizeCharMap.Builder();
+		builder.add("\u0F80", "\u0F72");
+		builder.add("\u0F81", "\u0F71\u0F72");
+		TIBETAN_CHAR_MAP = builder.build();
+
+		builder = new NormalizeCharMap.Builder();
+		builder.add("-i", "i");
+		builder.add("-I", "I");
+		// longest match wins, so these keep the vocalic r and l as they are
+		builder.add("r-i", "r-i");
+		builder.add("r-I", "r-I");
+		builder.add("l-i", "l-i");
+		builder.add("l-I", "l-I");
+		WYLIE_CHAR_MAP = builder.build();
+	}
+
+	private VariantMaps() {
+	}
+
+	private static final class Defaults {
+		static final SynonymMap TIBETAN = load(true, "tibetan-variants.txt");
+		static final SynonymMap WYLIE = load(false, "wylie-variants.txt");
+
+		private static SynonymMap load(boolean tibetan, String resource) {
+			final InputStream in = VariantMaps.class.getResourceAsStream(resource);
+			if (in == null) {
+				throw new IllegalStateException("missing resource " + resource);
+			}
+			try {
+				try {
+					return tibetan ? tibetan(new InputStreamReader(in, "UTF-8")) : wylie(new InputStreamReader(in, "UTF-8"));
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot load " + resource, e);
+			} catch (ParseException e) {
+				throw new IllegalStateException("cannot parse " + resource, e);
+			}
+		}
+	}
+
+	/** Returns the default variant map for {@link TibetanAnalyzer} */
+	public static SynonymMap tibetan() {
+		return Defaults.TIBETAN;
+	}
+
+	/** Returns the default variant map for {@link WylieAnalyzer} */
+	public static SynonymMap wylie() {
+		return Defaults.WYLIE;
+	}
+
+	/**
+	 * Compiles a variant table in Unicode Tibetan for {@link TibetanAnalyzer} with its default stop words. The entries are analyzed like the text
+	 * they will match.
+	 */
+	public static SynonymMap tibetan(Reader table) throws IOException, ParseException {
+		return tibetan(table, TibetanAnalyzer.TIBETAN_STOP_WORDS_SET);
+	}
+
+	/**
+	 * Compiles a variant table in Unicode Tibetan for a {@link TibetanAnalyzer} that removes <tt>stopWords</tt>. The entries are analyzed like the
+	 * text they will match.
+	 */
+	public static SynonymMap tibetan(Reader table, final CharArraySet stopWords) throws IOException, ParseException {
+		return compile(table, new Analyzer() {
+			@Override
+			protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+				final Tokenizer source = new TibWhitespaceTokenizer(Version.LUCENE_44, reader);
+				return new TokenStreamComponents(source, stop(tibetanFilters(source), stopWords));
+			}
+
+			@Override
+			protected Reader initReader(String fieldName, Reader reader) {
+				return new MappingCharFilter(TIBETAN_CHAR_MAP, reader);
+			}
+		});
+	}
+
+	/**
+	 * Compiles a variant table in Extended Wylie for {@link WylieAnalyzer} with its default stop words. The entries are analyzed like the text they
+	 * will match.
+	 */
+	public static SynonymMap wylie(Reader table) throws IOException, ParseException {
+		return wylie(table, WylieAnalyzer.WYLIE_STOP_WORDS_SET);
+	}
+
+	/**
+	 * Compiles a variant table in Extended Wylie for a {@link WylieAnalyzer} that removes <tt>stopWords</tt>. The entries are analyzed like the
+	 * text they will match.
+	 */
+	public static SynonymMap wylie(Reader table, final CharArraySet stopWords) throws IOException, ParseException {
+		return compile(table, new Analyzer() {
+			@Override
+			protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+				final Tokenizer source = new WylieTokenizer(Version.LUCENE_44, reader);
+				return new TokenStreamComponents(source, stop(wylieFilters(source), stopWords));
+			}
+
+			@Override
+			protected Reader initReader(String fieldName, Reader reader) {
+				return new MappingCharFilter(WYLIE_CHAR_MAP, reader);
+			}
+		});
+	}
+
+	/** The filters of {@link TibetanAnalyzer} that run before the stop filter */
+	static TokenFilter tibetanFilters(TokenStream source) {
+		TokenFilter filter = new TibEndingFilter(source);
+		return new TibNumeralFilter(filter);
+	}
+
+	/** The filters of {@link WylieAnalyzer} that run before the stop filter */
+	static TokenFilter wylieFilters(TokenStream source) {
+		TokenFilter filter = new PlusFilter(source);
+		return new EndingFilter(filter);
+	}
+
+	/** The stop filter of the analyzers, which leaves no position gaps */
+	@SuppressWarnings("deprecation")
+	static TokenFilter stop(TokenStream in, CharArraySet stopWords) {
+		final StopFilter filter = new StopFilter(Version.LUCENE_43, in, stopWords);
+		filter.setEnablePositionIncrements(false);
+		return filter;
+	}
+
+	/**
+	 * Returns the filters that fold the spellings of <tt>variants</tt> into their canonical spelling, for a map of this class.
+	 */
+	static TokenFilter filter(TokenStream in, SynonymMap variants) {
+		// the third argument is ignoreCase: the tokens are already lower cased
+		return new VariantFoldFilter(new SynonymFilter(in, variants, false));
+	}
+
+	private static SynonymMap compile(Reader table, Analyzer analyzer) throws IOException, ParseException {
+		try {
+			// expand = false: every spelling of a group maps to the first one only
+			final SolrSynonymParser parser = new SolrSynonymParser(true, false, analyzer) {
+				@Override
+				public void add(CharsRef input, CharsRef output, boolean includeOrig) {
+					if (output.length == 0) {
+						throw new IllegalArgumentException("the first spelling of a group is a stop word");
+					}
+					if (input.length == 0) {
+						// a spelling made of stop words only never reaches the variants
+						return;
+					}
+					for (int i = output.offset; i < output.offset + output.length; i++) {
+						if (output.chars[i] == SynonymMap.WORD_SEPARATOR) {
+							throw new IllegalArgumentException("the first spelling of a group must be a single term: " + output);
+						}
+					}
+					if (!input.equals(output)) {
+						// keep the originals, so that SynonymFilter sets the position length; VariantFoldFilter drops them
+						super.add(input, output, true);
+					}
+				}
+			};
+			parser.add(table);
+			return parser.build();
+		} finally {
+			analyzer.close();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.Version;
+
+/**
+ * Checks that the stopped branches of {@link MultiplexAnalyzer} index the same terms at the same positions as the analyzers they stand for.
+ * <p>
+ * There is no test framework in <tt>lib</tt>, so this runs as a program and throws an {@link AssertionError} on the first failure.
+ */
+public final class MultiplexBranchTest {
+
+	public static void main(String[] args) throws IOException {
+		// bam po 12 pa, the volume number in Tibetan digits, and the particle gis
+		assertSameTokens(MultiplexAnalyzer.Source.TIBETAN, MultiplexAnalyzer.TIBETAN_STOPPED, new TibetanAnalyzer(Version.LUCENE_44),
+				"\u0F56\u0F58\u0F0B\u0F54\u0F7C\u0F0B\u0F21\u0F22\u0F0B\u0F54\u0F0B\u0F42\u0F72\u0F66\u0F0B\u0F56\u0F66\u0F92\u0FB2\u0F74\u0F56\u0F66");
+		assertSameTokens(MultiplexAnalyzer.Source.WYLIE, MultiplexAnalyzer.WYLIE_STOPPED, new WylieAnalyzer(Version.LUCENE_44),
+				"bam po 12 pa gis pad+ma'i bsgrubs");
+		System.out.println("ok");
+	}
+
+	private static void assertSameTokens(MultiplexAnalyzer.Source source, MultiplexAnalyzer.Branch branch, Analyzer analyzer, String text)
+			throws IOException {
+		final MultiplexAnalyzer multiplex = new MultiplexAnalyzer(Version.LUCENE_44, source).addBranch("text", branch);
+		final List<String> expected = tokens(analyzer.tokenStream("text", text));
+		final List<String> actual = tokens(multiplex.tokenStreams(new StringReader(text)).get("text"));
+		if (!expected.equals(actual)) {
+			throw new AssertionError("branch gave " + actual + ", analyzer " + expected);
+		}
+	}
+
+	/** Returns the terms of <tt>ts</tt> with their position increments */
+	private static List<String> tokens(TokenStream ts) throws IOException {
+		final CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
+		final PositionIncrementAttribute posIncAtt = ts.addAttribute(PositionIncrementAttribute.class);
+		final List<String> tokens = new ArrayList<String>();
+		try {
+			ts.reset();
+			while (ts.incrementToken()) {
+				tokens.add(termAtt.toString() + "/" + posIncAtt.getPositionIncrement());
+			}
+			ts.end();
+		} finally {
+			ts.close();
+		}
+		return tokens;
+	}
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * Checks that {@link SyllableSuggester} finds every indexed syllable within the weighted distance, including those only cheap Tibetan edits away.
+ * <p>
+ * There is no test framework in <tt>lib</tt>, so this runs as a program and throws an {@link AssertionError} on the first failure.
+ */
+public final class SyllableSuggesterTest {
+
+	public static void main(String[] args) throws IOException {
+		testSubjoinedForFull();
+		testAgainstBruteForce(1);
+		testAgainstBruteForce(2);
+		testWriteRead();
+		System.out.println("ok");
+	}
+
+	/** The OCR error the suggester is for: full letters read for both subjoined letters of bsgrubs, a weighted distance of 0.5 */
+	static void testSubjoinedForFull() {
+		final String bsgrubs = "\u0F56\u0F66\u0F92\u0FB2\u0F74\u0F56\u0F66";
+		final String misread = "\u0F56\u0F66\u0F42\u0F62\u0F74\u0F56\u0F66";
+		final SyllableSuggester suggester = new SyllableSuggester(new String[] { bsgrubs, "\u0F56\u0F66\u0F92\u0FB2\u0F74\u0F56" }, new int[] { 10, 5 }, 1);
+		final List<SyllableSuggester.Suggestion> suggestions = suggester.suggest(misread, 5);
+		check(!suggestions.isEmpty() && suggestions.get(0).syllable.equals(bsgrubs) && suggestions.get(0).distance == 0.5f,
+				"expected bsgrubs at 0.5, got " + suggestions);
+	}
+
+	/** Compares the suggestions with a scan of all syllables by weighted distance */
+	static void testAgainstBruteForce(int maxEdits) {
+		final Random random = new Random(maxEdits);
+		final String alphabet = "\u0F40\u0F42\u0F44\u0F51\u0F53\u0F56\u0F58\u0F66\u0F60\u0F90\u0F92\u0F94\u0FA1\u0FA3\u0FA6\u0FA8\u0FB1\u0FB2\u0F72\u0F7A\u0F74\u0F7C\u0F80";
+		final Set<String> set = new TreeSet<String>();
+		while (set.size() < 3000) {
+			set.add(randomSyllable(random, alphabet));
+		}
+		final String[] syllables = set.toArray(new String[set.size()]);
+		final int[] freqs = new int[syllables.length];
+		for (int i = 0; i < freqs.length; i++) {
+			freqs[i] = 1 + random.nextInt(100);
+		}
+		final SyllableSuggester suggester = new SyllableSuggester(syllables, freqs, maxEdits);
+		for (int q = 0; q < 300; q++) {
+			final String query = randomSyllable(random, alphabet);
+			final List<String> expected = new ArrayList<String>();
+			for (String syllable : syllables) {
+				if (SyllableSuggester.distance(query, syllable) <= maxEdits) {
+					expected.add(syllable);
+				}
+			}
+			final List<String> actual = new ArrayList<String>();
+			for (SyllableSuggester.Suggestion suggestion : suggester.suggest(query, Integer.MAX_VALUE)) {
+				actual.add(suggestion.syllable);
+			}
+			Collections.sort(expected);
+			Collections.sort(actual);
+			check(expected.equals(actual), "maxEdits " + maxEdits + ", " + query + ": expected " + expected + ", got " + actual);
+		}
+	}
+
+	static void testWriteRead() throws IOException {
+		final String[] syllables = { "bsgrub", "bsgrubs", "sgrub", "thams", "cad" };
+		final SyllableSuggester suggester = new SyllableSuggester(syllables, new int[] { 3, 9, 2, 7, 7 }, 2);
+		final RAMDirectory dir = new RAMDirectory();
+		final IndexOutput out = dir.createOutput("suggester", IOContext.DEFAULT);
+		suggester.write(out);
+		out.close();
+		final IndexInput in = dir.openInput("suggester", IOContext.DEFAULT);
+		final SyllableSuggester read = SyllableSuggester.read(in);
+		in.close();
+		for (String query : new String[] { "bsgrus", "sgrubs", "tham", "chad", "bsgrob" }) {
+			check(suggester.suggest(query, 5).toString().equals(read.suggest(query, 5).toString()), "read suggester differs for " + query);
+		}
+	}
+
+	private static String randomSyllable(Random random, String alphabet) {
+		final StringBuilder sb = new StringBuilder();
+		final int len = 1 + random.nextInt(5);
+		for (int i = 0; i < len; i++) {
+			sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return sb.toString();
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
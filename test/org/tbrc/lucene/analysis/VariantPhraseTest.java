@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Tibetan Buddhist Resource Center (TBRC)
+ * 
+ * If this file is a derivation of another work the license header will appear 
+ * below; otherwise, this work is licensed under the Apache License, Version 2.0 
+ * (the "License"); you may not use this file except in compliance with the 
+ * License.
+ * 
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.tbrc.lucene.analysis;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * Checks that a phrase over a folded variant group still matches when a particle follows the group in the text but not in the query.
+ * <p>
+ * There is no test framework in <tt>lib</tt>, so this runs as a program and throws an {@link AssertionError} on the first failure.
+ */
+public final class VariantPhraseTest {
+
+	public static void main(String[] args) throws IOException {
+		testWylie();
+		testTibetan();
+		System.out.println("ok");
+	}
+
+	static void testWylie() throws IOException {
+		final String[] docs = { "thams cad mkhyen pa", "thams cad gis mkhyen pa" };
+		assertHits(new WylieAnalyzer(Version.LUCENE_44), docs, "thams cad mkhyen", 2);
+		assertHits(new WylieAnalyzer(Version.LUCENE_44, VariantMaps.wylie()), docs, "thams cad mkhyen", 2);
+	}
+
+	static void testTibetan() throws IOException {
+		// thams cad mkhyen pa, thams cad gis mkhyen pa
+		final String[] docs = { "\u0F50\u0F58\u0F66\u0F0B\u0F45\u0F51\u0F0B\u0F58\u0F41\u0FB1\u0F7A\u0F53\u0F0B\u0F54",
+				"\u0F50\u0F58\u0F66\u0F0B\u0F45\u0F51\u0F0B\u0F42\u0F72\u0F66\u0F0B\u0F58\u0F41\u0FB1\u0F7A\u0F53\u0F0B\u0F54" };
+		// thams cad mkhyen
+		final String query = "\u0F50\u0F58\u0F66\u0F0B\u0F45\u0F51\u0F0B\u0F58\u0F41\u0FB1\u0F7A\u0F53";
+		assertHits(new TibetanAnalyzer(Version.LUCENE_44), docs, query, 2);
+		assertHits(new TibetanAnalyzer(Version.LUCENE_44, VariantMaps.tibetan()), docs, query, 2);
+	}
+
+	private static void assertHits(Analyzer analyzer, String[] docs, String text, int expected) throws IOException {
+		final Directory dir = new RAMDirectory();
+		final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_44, analyzer));
+		for (String doc : docs) {
+			final Document document = new Document();
+			document.add(new TextField("text", doc, Field.Store.NO));
+			writer.addDocument(document);
+		}
+		writer.close();
+
+		final DirectoryReader reader = DirectoryReader.open(dir);
+		try {
+			final Query query = new TibQueryBuilder(analyzer, reader).createQuery("text", text);
+			final int hits = new IndexSearcher(reader).search(query, 10).totalHits;
+			if (hits != expected) {
+				throw new AssertionError(query + " matched " + hits + " documents, expected " + expected);
+			}
+		} finally {
+			reader.close();
+			dir.close();
+		}
+	}
+}